@@ -1,5 +1,6 @@
 package internal;
 
+import alma.compositions.ClassIndex;
 import alma.compositions.CompositionManager;
 import alma.api.AlmaComponent;
 import org.openjdk.jmh.annotations.*;
@@ -18,9 +19,13 @@ import java.util.concurrent.TimeUnit;
 public class CompositionManagerBenchmark {
 
     CompositionManager cm;
+    CompositionManager cachedCm;
+    CompositionManager uncachedCm;
     AlmaComponent[] components1 = new AlmaComponent[]{new C1(1), new C2(2)};
     AlmaComponent[] components2 = new AlmaComponent[]{new C1(1), new C2(2), new C3(3), new C4(4)};
     AlmaComponent[] components3 = new AlmaComponent[]{new C1(1), new C2(2), new C3(3), new C4(4), new C5(5), new C6(6), new C7(7), new C8(8)};
+    Class<?>[] query1 = new Class<?>[]{C1.class};
+    Class<?>[] query2 = new Class<?>[]{C1.class, C2.class, C3.class};
 
     static class C1 extends TestComponent {
         public C1(int value) {
@@ -73,6 +78,16 @@ public class CompositionManagerBenchmark {
     @Setup(Level.Iteration)
     public void setup() {
         cm = new CompositionManager();
+        cachedCm = new CompositionManager(new ClassIndex(), true);
+        uncachedCm = new CompositionManager(new ClassIndex(), false);
+        // Every non-empty subset of the 8 component types as a composition
+        Class<?>[] types = new Class<?>[]{C1.class, C2.class, C3.class, C4.class, C5.class, C6.class, C7.class, C8.class};
+        for (int mask = 1; mask < 1 << types.length; mask++) {
+            Class<?>[] composition = new Class<?>[Integer.bitCount(mask)];
+            for (int i = 0, j = 0; i < types.length; i++) if ((mask & 1 << i) != 0) composition[j++] = types[i];
+            cachedCm.getComposition(composition);
+            uncachedCm.getComposition(composition);
+        }
     }
 
     @Benchmark
@@ -96,6 +111,26 @@ public class CompositionManagerBenchmark {
         bh.consume(cm.getComposition(components3));
     }
 
+    @Benchmark
+    public void queryCompositionsWith1ComponentCachedBenchmark(Blackhole bh) {
+        bh.consume(cachedCm.queryCompositionsWith(query1));
+    }
+
+    @Benchmark
+    public void queryCompositionsWith1ComponentUncachedBenchmark(Blackhole bh) {
+        bh.consume(uncachedCm.queryCompositionsWith(query1));
+    }
+
+    @Benchmark
+    public void queryCompositionsWith3ComponentsCachedBenchmark(Blackhole bh) {
+        bh.consume(cachedCm.queryCompositionsWith(query2));
+    }
+
+    @Benchmark
+    public void queryCompositionsWith3ComponentsUncachedBenchmark(Blackhole bh) {
+        bh.consume(uncachedCm.queryCompositionsWith(query2));
+    }
+
     public static void main(String[] args) throws Exception {
         org.openjdk.jmh.Main.main(
                 new String[]{CompositionManagerBenchmark.class.getName().replace('$', '.')}
@@ -0,0 +1,123 @@
+package alma.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.RecordComponentElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Annotation processor for records annotated with alma.api.FlatComponent. For every record of primitive values it
+ * generates an AlmaFlatComponent subclass with the component layout, the copy implementation, instance accessors bound
+ * to the component data and static accessors over the flat columns of a partition chunk.
+ *
+ * @author Santiago Barreiro
+ */
+@SupportedAnnotationTypes(FlatComponentProcessor.ANNOTATION)
+@SupportedSourceVersion(SourceVersion.RELEASE_17)
+public final class FlatComponentProcessor extends AbstractProcessor {
+
+    // CONSTANTS
+    public static final String ANNOTATION = "alma.api.FlatComponent";
+    public static final String SUFFIX = "Component";
+
+    // METHODS
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.RECORD) {
+                    error(element, "@FlatComponent can only be applied to records");
+                    continue;
+                }
+                generate((TypeElement) element);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates the flat component source for a record. Reports an error for every record component that is not a
+     * primitive value.
+     *
+     * @param record Annotated record
+     */
+    private void generate(TypeElement record) {
+        List<? extends RecordComponentElement> fields = record.getRecordComponents();
+        if (fields.isEmpty()) {
+            error(record, "Flat components must declare at least one field");
+            return;
+        }
+        FieldType[] types = new FieldType[fields.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = FieldType.of(fields.get(i).asType().getKind());
+            if (types[i] == null) {
+                error(fields.get(i), "Flat component fields must be primitive values");
+                return;
+            }
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(record).getQualifiedName().toString();
+        String recordName = record.getSimpleName().toString();
+        String className = recordName + SUFFIX;
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, record).openWriter()) {
+            writer.write(new FlatComponentWriter(packageName, recordName, className, fields, types).write());
+        } catch (IOException e) {
+            error(record, "Could not generate flat component " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * Primitive types supported by flat components, with the names used to generate their layouts and accessors.
+     * Booleans are stored as a single byte.
+     */
+    enum FieldType {
+        BOOLEAN("boolean", "JAVA_BYTE", "Byte"),
+        BYTE("byte", "JAVA_BYTE", "Byte"),
+        SHORT("short", "JAVA_SHORT", "Short"),
+        CHAR("char", "JAVA_CHAR", "Char"),
+        INT("int", "JAVA_INT", "Int"),
+        LONG("long", "JAVA_LONG", "Long"),
+        FLOAT("float", "JAVA_FLOAT", "Float"),
+        DOUBLE("double", "JAVA_DOUBLE", "Double");
+
+        final String javaType;                      // Java type of the field
+        final String layout;                        // MemoryLayouts constant describing the field
+        final String access;                        // Suffix of the accessor methods for the field
+
+        FieldType(String javaType, String layout, String access) {
+            this.javaType = javaType;
+            this.layout = layout;
+            this.access = access;
+        }
+
+        static FieldType of(TypeKind kind) {
+            return switch (kind) {
+                case BOOLEAN -> BOOLEAN;
+                case BYTE -> BYTE;
+                case SHORT -> SHORT;
+                case CHAR -> CHAR;
+                case INT -> INT;
+                case LONG -> LONG;
+                case FLOAT -> FLOAT;
+                case DOUBLE -> DOUBLE;
+                default -> null;
+            };
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package alma.processor;
+
+import alma.processor.FlatComponentProcessor.FieldType;
+
+import javax.lang.model.element.RecordComponentElement;
+import java.util.List;
+
+/**
+ * Writes the source of the flat component generated for a record.
+ *
+ * @author Santiago Barreiro
+ */
+final class FlatComponentWriter {
+
+    // CONSTANTS
+    private static final String INDENT = "    ";
+
+    // ATTRIBUTES
+    private final String packageName;
+    private final String recordName;
+    private final String className;
+    private final String[] names;                   // Names of the record components
+    private final FieldType[] types;                // Types of the record components
+    private final StringBuilder sb;
+
+    // CONSTRUCTORS
+    FlatComponentWriter(String packageName, String recordName, String className,
+                        List<? extends RecordComponentElement> fields, FieldType[] types) {
+        this.packageName = packageName;
+        this.recordName = recordName;
+        this.className = className;
+        this.names = new String[fields.size()];
+        for (int i = 0; i < names.length; i++) names[i] = fields.get(i).getSimpleName().toString();
+        this.types = types;
+        this.sb = new StringBuilder();
+    }
+
+    // METHODS
+
+    /**
+     * Writes the complete source file of the flat component.
+     *
+     * @return Source of the generated class
+     */
+    String write() {
+        if (!packageName.isEmpty()) line(0, "package " + packageName + ";").line(0, "");
+        line(0, "import alma.api.AlmaComponent;");
+        line(0, "import alma.api.AlmaFlatComponent;");
+        line(0, "import alma.api.ComponentLayout;");
+        line(0, "import jdk.incubator.foreign.MemoryAccess;");
+        line(0, "import jdk.incubator.foreign.MemoryLayouts;");
+        line(0, "import jdk.incubator.foreign.MemorySegment;");
+        line(0, "");
+        line(0, "/**");
+        line(0, " * Flat component generated by " + FlatComponentProcessor.class.getSimpleName() + " from {@link " + recordName + "}.");
+        line(0, " */");
+        line(0, "public final class " + className + " extends AlmaFlatComponent {");
+        line(0, "");
+        writeConstants();
+        writeConstructors();
+        writeAccessors();
+        writeMethods();
+        writeColumnAccessors();
+        line(0, "}");
+        return sb.toString();
+    }
+
+    private void writeConstants() {
+        line(1, "// CONSTANTS");
+        line(1, "public static final ComponentLayout LAYOUT = ComponentLayout.of(");
+        for (int i = 0; i < names.length; i++) {
+            line(3, "MemoryLayouts." + types[i].layout + ".withName(\"" + names[i] + "\")" +
+                    (i + 1 < names.length ? "," : ");"));
+        }
+        line(1, "public static final long BYTE_SIZE = LAYOUT.byteSize();");
+        for (int i = 0; i < names.length; i++) {
+            line(1, "public static final long " + offsetName(i) + " = LAYOUT.offset(" + i + ");");
+        }
+        line(0, "");
+    }
+
+    private void writeConstructors() {
+        line(1, "// CONSTRUCTORS");
+        line(1, "public " + className + "() {");
+        line(2, "super(LAYOUT);");
+        line(1, "}");
+        line(0, "");
+        StringBuilder params = new StringBuilder();
+        StringBuilder args = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                params.append(", ");
+                args.append(", ");
+            }
+            params.append(types[i].javaType).append(' ').append(names[i]);
+            args.append("value.").append(names[i]).append("()");
+        }
+        line(1, "public " + className + "(" + params + ") {");
+        line(2, "this();");
+        for (int i = 0; i < names.length; i++) line(2, setter(i) + "(" + names[i] + ");");
+        line(1, "}");
+        line(0, "");
+        line(1, "public " + className + "(" + recordName + " value) {");
+        line(2, "this(" + args + ");");
+        line(1, "}");
+        line(0, "");
+    }
+
+    private void writeAccessors() {
+        line(1, "// GETTERS & SETTERS");
+        line(1, "@Override");
+        line(1, "public ComponentLayout layout() {");
+        line(2, "return LAYOUT;");
+        line(1, "}");
+        for (int i = 0; i < names.length; i++) {
+            line(0, "");
+            line(1, "public " + types[i].javaType + " " + getter(i) + "() {");
+            line(2, "return " + read("get" + types[i].access + "(" + offsetName(i) + ")", types[i]) + ";");
+            line(1, "}");
+            line(0, "");
+            line(1, "public void " + setter(i) + "(" + types[i].javaType + " " + names[i] + ") {");
+            line(2, "set" + types[i].access + "(" + offsetName(i) + ", " + write(names[i], types[i]) + ");");
+            line(1, "}");
+        }
+        line(0, "");
+    }
+
+    private void writeMethods() {
+        line(1, "// METHODS");
+        StringBuilder args = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) args.append(", ");
+            args.append(getter(i)).append("()");
+        }
+        line(1, "public " + recordName + " toRecord() {");
+        line(2, "return new " + recordName + "(" + args + ");");
+        line(1, "}");
+        line(0, "");
+        line(1, "@Override");
+        line(1, "public void copy(AlmaComponent target) {");
+        line(2, "if (target instanceof " + className + " other) {");
+        for (int i = 0; i < names.length; i++) line(3, setter(i) + "(other." + getter(i) + "());");
+        line(2, "}");
+        line(1, "}");
+        line(0, "");
+    }
+
+    private void writeColumnAccessors() {
+        line(1, "// Accessors over a flat column of " + className + " entries, as returned by Partition.flatColumn");
+        for (int i = 0; i < names.length; i++) {
+            String offset = "index * BYTE_SIZE + " + offsetName(i);
+            line(1, "public static " + types[i].javaType + " " + getter(i) + "(MemorySegment column, int index) {");
+            line(2, "return " + read("MemoryAccess.get" + types[i].access + "AtOffset(column, " + offset + ")", types[i]) + ";");
+            line(1, "}");
+            line(0, "");
+            line(1, "public static void " + setter(i) + "(MemorySegment column, int index, " + types[i].javaType + " " + names[i] + ") {");
+            line(2, "MemoryAccess.set" + types[i].access + "AtOffset(column, " + offset + ", " + write(names[i], types[i]) + ");");
+            line(1, "}");
+            if (i + 1 < names.length) line(0, "");
+        }
+    }
+
+    private String offsetName(int field) {
+        return "OFFSET_" + names[field].replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    private String getter(int field) {
+        return "get" + Character.toUpperCase(names[field].charAt(0)) + names[field].substring(1);
+    }
+
+    private String setter(int field) {
+        return "set" + Character.toUpperCase(names[field].charAt(0)) + names[field].substring(1);
+    }
+
+    private static String read(String expression, FieldType type) {
+        return type == FieldType.BOOLEAN ? expression + " != 0" : expression;
+    }
+
+    private static String write(String value, FieldType type) {
+        return type == FieldType.BOOLEAN ? "(byte) (" + value + " ? 1 : 0)" : value;
+    }
+
+    private FlatComponentWriter line(int indent, String text) {
+        sb.append(INDENT.repeat(indent)).append(text).append('\n');
+        return this;
+    }
+}
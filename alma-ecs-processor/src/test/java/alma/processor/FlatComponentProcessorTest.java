@@ -0,0 +1,96 @@
+package alma.processor;
+
+import alma.api.AlmaFlatComponent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlatComponentProcessorTest {
+
+    @TempDir
+    Path output;
+
+    /**
+     * Compiles a single source file with the flat component processor, writing both the generated sources and the
+     * classes into the temporary output directory.
+     */
+    private DiagnosticCollector<JavaFileObject> compile(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = List.of("--add-modules", "jdk.incubator.foreign", "-Xlint:-options",
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", output.toString(), "-s", output.toString());
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null, List.of(file));
+        task.setProcessors(List.of(new FlatComponentProcessor()));
+        task.call();
+        return diagnostics;
+    }
+
+    private static long errors(DiagnosticCollector<JavaFileObject> diagnostics) {
+        return diagnostics.getDiagnostics().stream().filter(d -> d.getKind() == Diagnostic.Kind.ERROR).count();
+    }
+
+    @Test
+    void testGeneratedComponent() throws Exception {
+        DiagnosticCollector<JavaFileObject> diagnostics = compile("demo.Position", """
+                package demo;
+
+                import alma.api.FlatComponent;
+
+                @FlatComponent
+                public record Position(float x, float y, int hitPoints, boolean active) {
+                }
+                """);
+        assertEquals(0, errors(diagnostics), diagnostics.getDiagnostics().toString());
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{output.toUri().toURL()}, getClass().getClassLoader())) {
+            Class<?> type = loader.loadClass("demo.PositionComponent");
+            AlmaFlatComponent source = (AlmaFlatComponent) type
+                    .getConstructor(float.class, float.class, int.class, boolean.class)
+                    .newInstance(1.5f, 2.5f, 7, true);
+            AlmaFlatComponent target = (AlmaFlatComponent) type.getConstructor().newInstance();
+            target.copy(source);
+
+            assertEquals(13, AlmaFlatComponent.layoutOf(type).byteSize());
+            assertEquals(8L, type.getField("OFFSET_HIT_POINTS").get(null));
+            assertEquals(2.5f, type.getMethod("getY").invoke(target));
+            assertEquals(7, type.getMethod("getHitPoints").invoke(target));
+            assertEquals(true, type.getMethod("getActive").invoke(target));
+            assertEquals(source.getClass().getMethod("toRecord").invoke(source), type.getMethod("toRecord").invoke(target));
+        }
+    }
+
+    @Test
+    void testRejectsNonPrimitiveFields() {
+        DiagnosticCollector<JavaFileObject> diagnostics = compile("demo.Named", """
+                package demo;
+
+                import alma.api.FlatComponent;
+
+                @FlatComponent
+                public record Named(int id, String name) {
+                }
+                """);
+        assertEquals(1, errors(diagnostics));
+    }
+}
@@ -1,13 +1,23 @@
 package alma;
 
 import alma.api.AlmaComponent;
+import alma.api.AlmaFlatComponent;
+import alma.api.EntityConsumers;
 import alma.compositions.ClassIndex;
 import alma.compositions.Composition;
+import alma.compositions.CompositionEdge;
 import alma.utils.CompositionHash;
 import alma.compositions.CompositionManager;
+import alma.utils.AlmaException;
+import alma.utils.ComponentFactory;
+import alma.utils.IntIntMap;
 
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * AlmaCore
@@ -18,47 +28,530 @@ public final class AlmaPool {
 
     // ATTRIBUTES
     private final IdHandler idHandler;
+    private final LongIdHandler longIdHandler;              // Layout of the universal IDs of the entities
+    private final int worldId;                              // World segment of the universal IDs of this pool
     private final ClassIndex classIndex;
     private final CompositionManager cm;
     private final Map<CompositionHash, Partition> partitions;
+    private final Composition[] compositionTable;           // Composition of each partition, indexed by partition ID
+    private final Queue<CommandBuffer> registeredBuffers;   // Command buffers of the threads that recorded commands
+    private final Queue<CommandBuffer> spareBuffers;        // Command buffers of finished threads, ready for reuse
+    private final ThreadLocal<CommandBuffer> commandBuffers;// Command buffer of each thread
+    private final CommandBuffer playback;                   // Commands of every buffer gathered for playback
+    private Partition[] targets = new Partition[0];         // Target partition of each creation during playback
+    private long[] playbackOrder = new long[0];             // Sort keys of the commands during playback
+    private final IntIntMap moved;                          // New ID of each entity moved during playback
+    private final Partition.Mode partitionMode;
     private int partitionIndex = -1;
 
     // CONSTRUCTORS
-    private AlmaPool() {
-        this.idHandler = new IdHandler();
+    private AlmaPool(Partition.Mode partitionMode, IdHandler idHandler, int worldId) {
+        this.partitionMode = partitionMode;
+        this.idHandler = idHandler;
+        this.longIdHandler = LongIdHandler.of(idHandler);
+        if (worldId < 0 || worldId > longIdHandler.worldMask >>> longIdHandler.worldShift)
+            throw new AlmaException("World ID " + worldId + " doesn't fit within the universal ID layout");
+        this.worldId = worldId;
         this.classIndex = new ClassIndex();
-        this.cm = new CompositionManager();
+        this.cm = new CompositionManager(classIndex);
         this.partitions = new ConcurrentHashMap<>();
+        this.compositionTable = new Composition[idHandler.maxPartitions + 1];
+        this.registeredBuffers = new ConcurrentLinkedQueue<>();
+        this.spareBuffers = new ConcurrentLinkedQueue<>();
+        this.commandBuffers = ThreadLocal.withInitial(() -> {
+            CommandBuffer buffer = spareBuffers.poll();
+            if (buffer == null) buffer = new CommandBuffer();
+            buffer.setOwner(Thread.currentThread());
+            registeredBuffers.add(buffer);
+            return buffer;
+        });
+        this.playback = new CommandBuffer();
+        this.moved = new IntIntMap();
     }
 
     // METHODS
     private void createPartition(CompositionHash hash, Composition composition) {
+        if (partitionIndex == idHandler.maxPartitions)
+            throw new AlmaException("Reached the maximum amount of compositions of the pool ID layout");
         int[] componentIndex = classIndex.getIndexArray(composition.getComponentTypes());
-        Partition newPartition = new Partition(++partitionIndex, idHandler, composition.getSize(), componentIndex);
+        Partition newPartition = new Partition(++partitionIndex, idHandler, composition.getSize(), componentIndex,
+                composition.getComponentTypes(), partitionMode);
         partitions.put(hash, newPartition);
+        compositionTable[partitionIndex] = composition;
         composition.setPartition(newPartition);
     }
 
+    /**
+     * Gets the composition of the partition an entity belongs to
+     *
+     * @param entity ID of the entity
+     * @return The composition of the entity
+     */
+    private Composition compositionOf(int entity) {
+        Composition composition = compositionTable[idHandler.getPartitionId(entity)];
+        if (composition == null) throw new AlmaException("Tried to access an entity of a non-existing partition");
+        return composition;
+    }
+
+    /**
+     * Moves an entity through a composition edge, lazily creating the partition of the target composition.
+     *
+     * @param entity ID of the entity
+     * @param source Composition of the entity
+     * @param edge   Edge to follow
+     * @param added  Component added by the edge, null if the edge removes a component
+     * @return The new ID of the entity
+     */
+    private int migrate(int entity, Composition source, CompositionEdge edge, AlmaComponent added) {
+        Composition target = edge.getTarget();
+        if (target.getPartition() == null)
+            createPartition(classIndex.getCompositionHash(target.getComponentTypes()), target);
+        return source.getPartition().migrateEntity(entity, target.getPartition(), edge.getSourceColumns(), added);
+    }
+
+    /**
+     * Adds a component to an existing entity, moving it into the partition of the composition including the component
+     * type. The transition between both compositions is cached, so repeated transitions cost an array lookup plus the
+     * copy of the entity. IDs encode the partition of the entity, so the entity gets a new ID and the old one is
+     * released.
+     *
+     * @param entity    ID of the entity
+     * @param component Component to add, its type can't be already in the entity
+     * @return The new ID of the entity
+     */
+    public int addComponent(int entity, AlmaComponent component) {
+        Composition source = compositionOf(entity);
+        return migrate(entity, source, cm.getAddEdge(source, component.getClass()), component);
+    }
+
+    /**
+     * Removes a component from an existing entity, moving it into the partition of the composition without the
+     * component type. As with {@link #addComponent(int, AlmaComponent)}, the entity gets a new ID.
+     *
+     * @param entity ID of the entity
+     * @param type   Component type to remove, it must be in the entity
+     * @return The new ID of the entity
+     */
+    public int removeComponent(int entity, Class<?> type) {
+        Composition source = compositionOf(entity);
+        return migrate(entity, source, cm.getRemoveEdge(source, type), null);
+    }
+
     public int createEntity(AlmaComponent[] composition) {
+        return partitionFor(composition).addEntitySafe(composition, classIndex);
+    }
+
+    /**
+     * Creates several entities with copies of the same components. The partition is resolved and the template aligned
+     * once, then the entities are stored in runs of consecutive chunk slots. Copies are created through the no-args
+     * constructor of each component type, so every type of the template must declare one, otherwise an
+     * {@link AlmaException} is thrown before any entity is created.
+     *
+     * @param count    Amount of entities to create
+     * @param template Components of the entities, every entity gets its own copy of them
+     * @param ids      Array receiving the IDs of the new entities, null if not needed
+     */
+    public void createEntities(int count, AlmaComponent[] template, int[] ids) {
+        if (ids != null && ids.length < count)
+            throw new AlmaException("Tried to create more entities than the IDs array can hold");
+        for (AlmaComponent component : template) ComponentFactory.requireNoArgsConstructor(component.getClass());
+        partitionFor(template).addEntities(count, template, classIndex, ids, 0);
+    }
+
+    /**
+     * Gets the partition storing the entities with the types of the components, lazily creating it.
+     *
+     * @param composition Components of an entity
+     * @return The partition for the composition
+     */
+    private Partition partitionFor(AlmaComponent[] composition) {
         CompositionHash targetHash = classIndex.getCompositionHash(composition);
         // Lazily create the partition for this composition
         if (!partitions.containsKey(targetHash)) createPartition(targetHash, cm.getComposition(composition));
-        Partition targetPartition = partitions.get(targetHash);
-        return targetPartition.addEntitySafe(composition, classIndex);
+        return partitions.get(targetHash);
+    }
+
+    /**
+     * Destroys an entity, releasing its ID so it can be reused.
+     *
+     * @param entity ID of the entity
+     */
+    public void destroyEntity(int entity) {
+        compositionOf(entity).getPartition().removeEntity(entity);
+    }
+
+    /**
+     * Converts an entity ID into its universal 64 bit ID, which also identifies the pool of the entity through its world
+     * segment.
+     *
+     * @param entity ID of the entity
+     * @return The universal ID of the entity
+     */
+    public long toUniversalId(int entity) {
+        return longIdHandler.fromLocal(worldId, idHandler, entity);
+    }
+
+    /**
+     * Converts a universal 64 bit ID back into the ID of the entity within this pool. Throws an exception if the ID
+     * belongs to a different world.
+     *
+     * @param universalId Universal ID of the entity
+     * @return The ID of the entity within this pool
+     */
+    public int fromUniversalId(long universalId) {
+        if (longIdHandler.getWorldId(universalId) != worldId)
+            throw new AlmaException("Tried to access an entity of a different world");
+        return longIdHandler.toLocal(idHandler, universalId);
+    }
+
+    /**
+     * Gets a single component of an entity. The partition of the entity is found through the partition segment of its
+     * ID, so the lookup takes constant time and allocates nothing for heap components. Flat components are returned as
+     * new views; use {@link #bind(int, AlmaFlatComponent)} to avoid the allocation.
+     *
+     * @param entity ID of the entity
+     * @param type   Component type
+     * @return The component of the entity, null if the entity does not have the component type
+     */
+    public <T extends AlmaComponent> T get(int entity, Class<T> type) {
+        return type.cast(compositionOf(entity).getPartition().getComponent(entity, classIndex.get(type)));
+    }
+
+    /**
+     * Binds a reusable view to the flat component of an entity, giving allocation free access to its values.
+     *
+     * @param entity ID of the entity
+     * @param view   View of the flat component type to bind
+     * @return False if the entity does not have the component type
+     */
+    public boolean bind(int entity, AlmaFlatComponent view) {
+        return compositionOf(entity).getPartition().bindComponent(entity, classIndex.get(view.getClass()), view);
+    }
+
+    /**
+     * Overwrites a single component of an entity with the values of the passed component. Throws an exception if the
+     * entity does not have the component type, as adding components changes the composition of the entity and must be
+     * done through {@link #addComponent(int, AlmaComponent)}.
+     *
+     * @param entity    ID of the entity
+     * @param component Component holding the new values
+     */
+    public void set(int entity, AlmaComponent component) {
+        if (!compositionOf(entity).getPartition().setComponent(entity, classIndex.get(component.getClass()), component))
+            throw new AlmaException("Tried to set a component type the entity does not have");
+    }
+
+    /**
+     * Checks if an ID still refers to an existing entity. With generation bits enabled, IDs of destroyed entities are
+     * never alive again even after their item is reused, as the reused item has a different generation.
+     *
+     * @param entity ID of the entity
+     * @return True if the entity exists
+     */
+    public boolean isAlive(int entity) {
+        Composition composition = compositionTable[idHandler.getPartitionId(entity)];
+        return composition != null && composition.getPartition().contains(entity);
+    }
+
+    /**
+     * Destroys several entities. The IDs are sorted by partition and item first, ignoring their generation, so each
+     * partition is resolved once and receives its IDs in ascending item order, see
+     * {@link Partition#removeEntities(int[], int, int)}. IDs of entities that do not exist are ignored.
+     *
+     * @param ids IDs of the entities, the array is not modified
+     * @return Amount of destroyed entities
+     */
+    public int destroyEntities(int[] ids) {
+        // The generation sits between the partition and the item, so it is masked out of the sort keys. The low half of
+        // each key is the position of the ID, which keeps duplicates together and recovers the full ID afterwards.
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) keys[i] = (long) (ids[i] & ~idHandler.generationMask) << 32 | i;
+        Arrays.sort(keys);
+        int[] sorted = new int[ids.length];
+        for (int i = 0; i < keys.length; i++) sorted[i] = ids[(int) keys[i]];
+        int destroyed = 0;
+        int from = 0;
+        while (from < sorted.length) {
+            int partition = idHandler.getPartitionId(sorted[from]);
+            int to = from + 1;
+            while (to < sorted.length && idHandler.getPartitionId(sorted[to]) == partition) to++;
+            Composition composition = compositionTable[partition];
+            if (composition != null) destroyed += composition.getPartition().removeEntities(sorted, from, to);
+            from = to;
+        }
+        return destroyed;
+    }
+
+    /**
+     * Destroys every entity matching a query. The partitions of the matching compositions are cleared at once, resetting
+     * their chunks and recycled IDs in bulk.
+     *
+     * @param query Query created by this pool
+     * @return Amount of destroyed entities
+     */
+    public int destroyAll(Query query) {
+        int destroyed = 0;
+        for (Composition composition : matchingCompositions(query)) {
+            Partition partition = composition.getPartition();
+            if (partition == null) continue;
+            destroyed += partition.size();
+            partition.clear();
+        }
+        return destroyed;
+    }
+
+    /**
+     * Gets the command buffer of the calling thread. Structural changes recorded into it are applied by the next call to
+     * {@link #flushCommands()}. Threads started for a single task, such as virtual threads, get a recycled buffer, as
+     * the buffers of finished threads are released by each flush.
+     *
+     * @return The command buffer of the calling thread
+     */
+    public CommandBuffer commands() {
+        return commandBuffers.get();
+    }
+
+    /**
+     * Plays back the commands recorded into every command buffer. Must be called at a sync point, when no thread is
+     * walking the entities of the pool or recording commands. The commands are sorted by target partition, keeping the
+     * recording order of the commands of each thread, so consecutive commands touch the same chunks. Commands on an
+     * entity that was moved by a previous command of the same flush are redirected to its new ID.
+     *
+     * @return Amount of applied commands
+     */
+    public int flushCommands() {
+        CommandBuffer batch = playback;
+        for (Iterator<CommandBuffer> it = registeredBuffers.iterator(); it.hasNext(); ) {
+            CommandBuffer buffer = it.next();
+            buffer.drainTo(batch);
+            // The thread local of a finished thread is gone with it, so its buffer can be handed to a new thread
+            if (buffer.getOwner().isAlive()) continue;
+            it.remove();
+            buffer.setOwner(null);
+            spareBuffers.add(buffer);
+        }
+        int size = batch.size();
+        if (size == 0) return 0;
+        if (targets.length < size) targets = new Partition[Math.max(size, targets.length << 1)];
+        if (playbackOrder.length < size) playbackOrder = new long[Math.max(size, playbackOrder.length << 1)];
+        long[] order = playbackOrder;
+        for (int i = 0; i < size; i++) {
+            int partition;
+            if (batch.op(i) == CommandBuffer.CREATE) {
+                targets[i] = partitionFor((AlmaComponent[]) batch.payload(i));
+                partition = targets[i].getIid();
+            } else {
+                partition = idHandler.getPartitionId(batch.entity(i));
+            }
+            // Sorting by partition and then by position keeps the order of the commands within a partition
+            order[i] = (long) partition << 32 | i;
+        }
+        Arrays.sort(order, 0, size);
+
+        moved.clear();
+        int applied = 0;
+        for (int k = 0; k < size; k++) {
+            int i = (int) order[k];
+            byte op = batch.op(i);
+            if (op == CommandBuffer.CREATE) {
+                targets[i].addEntitySafe((AlmaComponent[]) batch.payload(i), classIndex);
+                targets[i] = null;
+                applied++;
+                continue;
+            }
+            int recorded = batch.entity(i);
+            int entity = moved.get(recorded, recorded);
+            Composition composition = compositionTable[idHandler.getPartitionId(entity)];
+            if (composition == null || !composition.getPartition().contains(entity)) continue;
+            if (op == CommandBuffer.DESTROY) {
+                composition.getPartition().removeEntity(entity);
+            } else {
+                Class<?> type = op == CommandBuffer.ADD ? batch.payload(i).getClass() : (Class<?>) batch.payload(i);
+                boolean present = composition.getSignature().get(classIndex.get(type));
+                if (present == (op == CommandBuffer.ADD)) continue;
+                int migrated = op == CommandBuffer.ADD
+                        ? migrate(entity, composition, cm.getAddEdge(composition, type), (AlmaComponent) batch.payload(i))
+                        : migrate(entity, composition, cm.getRemoveEdge(composition, type), null);
+                moved.put(recorded, migrated);
+            }
+            applied++;
+        }
+        batch.clear();
+        return applied;
+    }
+
+    /**
+     * Adds a component to every entity matching a query. Whole partitions are moved into the partitions of the
+     * compositions including the component type, see {@link #migrateAll}. Matching entities that already have the
+     * component type are left untouched. Copies are created through the no-args constructor of the component type, so
+     * the type must declare one, otherwise an {@link AlmaException} is thrown before any entity is moved.
+     *
+     * @param query     Query created by this pool
+     * @param component Template of the component, every entity gets its own copy of it
+     * @param moved     Function receiving the previous and new ID of each moved entity, null if not needed
+     * @return Amount of moved entities
+     */
+    public int addComponentToAll(Query query, AlmaComponent component, EntityConsumers.Moved moved) {
+        ComponentFactory.requireNoArgsConstructor(component.getClass());
+        int typeIndex = classIndex.get(component.getClass());
+        int migrated = 0;
+        for (Composition source : matchingCompositions(query)) {
+            if (source.getSignature().get(typeIndex)) continue;
+            migrated += migrateAll(source, cm.getAddEdge(source, component.getClass()), component, moved);
+        }
+        return migrated;
+    }
+
+    /**
+     * Removes a component type from every entity matching a query. Whole partitions are moved into the partitions of
+     * the compositions without the component type, see {@link #migrateAll}. Matching entities without the component
+     * type are left untouched.
+     *
+     * @param query Query created by this pool
+     * @param type  Component type to remove
+     * @param moved Function receiving the previous and new ID of each moved entity, null if not needed
+     * @return Amount of moved entities
+     */
+    public int removeComponentFromAll(Query query, Class<?> type, EntityConsumers.Moved moved) {
+        int typeIndex = classIndex.get(type);
+        int migrated = 0;
+        for (Composition source : matchingCompositions(query)) {
+            if (!source.getSignature().get(typeIndex)) continue;
+            migrated += migrateAll(source, cm.getRemoveEdge(source, type), null, moved);
+        }
+        return migrated;
+    }
+
+    /**
+     * Gets a snapshot of the compositions matching a query, as migrations may register new matching compositions.
+     *
+     * @param query Query created by this pool
+     * @return Array of the compositions matching the query
+     */
+    private Composition[] matchingCompositions(Query query) {
+        checkQuery(query);
+        return cm.queryCompositions(query.getSignature()).values().toArray(new Composition[0]);
+    }
+
+    /**
+     * Moves every entity of a composition through a composition edge, chunk run by chunk run, leaving the source
+     * partition empty. IDs are fixed up in the same pass.
+     *
+     * @param source Composition of the entities
+     * @param edge   Edge to follow
+     * @param added  Template of the component added by the edge, null if the edge removes a component
+     * @param moved  Function receiving the previous and new ID of each moved entity, null if not needed
+     * @return Amount of moved entities
+     */
+    private int migrateAll(Composition source, CompositionEdge edge, AlmaComponent added, EntityConsumers.Moved moved) {
+        if (source.getPartition() == null || source.getPartition().size() == 0) return 0;
+        Composition target = edge.getTarget();
+        if (target.getPartition() == null)
+            createPartition(classIndex.getCompositionHash(target.getComponentTypes()), target);
+        return source.getPartition().migrateAll(target.getPartition(), edge.getSourceColumns(), added, moved);
     }
 
+    /**
+     * Gets the entities having every one of the component types. The signature of the types is compiled on every call,
+     * so queries run every frame should be built once through {@link #query()} and run with
+     * {@link #queryEntities(Query)}.
+     *
+     * @param componentQuery Component types of the entities, fetched in the same order
+     * @return The result of the query
+     */
     public QueryResult queryEntitiesWith(Class<?>[] componentQuery) {
         Map<CompositionHash, Composition> compositions = cm.queryCompositionsWith(componentQuery);
         int[] componentsIndex = new int[componentQuery.length];
         for (int i = 0; i < componentQuery.length; i++) {
             componentsIndex[i] = classIndex.get(componentQuery[i]);
         }
-        return new QueryResult(componentsIndex, compositions);
+        return new QueryResult(componentsIndex, compositions, classIndex);
+    }
+
+    /**
+     * Creates a builder for queries with exclusion, any-of and optional terms over the entities of this pool.
+     *
+     * @return A new query builder
+     */
+    public Query.Builder query() {
+        return new Query.Builder(classIndex);
+    }
+
+    /**
+     * Runs a compiled query. Compositions rejected by the query are discarded before any of their entities is visited.
+     *
+     * @param query Query created by this pool
+     * @return The result of the query
+     */
+    public QueryResult queryEntities(Query query) {
+        checkQuery(query);
+        return new QueryResult(query.getComponentIndex(), cm.queryCompositions(query.getSignature()), classIndex);
+    }
+
+    /**
+     * Gets the amount of command buffers registered by threads that were alive at the last flush or started afterwards
+     *
+     * @return Amount of registered command buffers
+     */
+    int registeredCommandBuffers() {
+        return registeredBuffers.size();
+    }
+
+    /**
+     * Discards the cached results of the queries run so far, see {@link CompositionManager#clearQueryCache()}. Query
+     * results obtained before the call must be queried again to see the compositions created afterwards.
+     */
+    public void clearQueryCache() {
+        cm.clearQueryCache();
+    }
+
+    private void checkQuery(Query query) {
+        if (query.getClassIndex() != classIndex)
+            throw new AlmaException("Tried to run a query created by a different pool");
     }
 
     public static class Factory {
         public static AlmaPool create() {
-            return new AlmaPool();
+            return new AlmaPool(Partition.Mode.POSITIONAL, new IdHandler(), 0);
+        }
+
+        /**
+         * Creates a pool whose partitions use the specified storage mode. Packed partitions are recommended for
+         * compositions with a high entity churn, as iterating them never visits removed entities.
+         *
+         * @param partitionMode Storage mode for the partitions of the pool
+         * @return The new pool
+         */
+        public static AlmaPool create(Partition.Mode partitionMode) {
+            return new AlmaPool(partitionMode, new IdHandler(), 0);
+        }
+
+        /**
+         * Creates a pool whose entity IDs carry a generation segment, so IDs of destroyed entities are detected as stale
+         * in constant time. Each generation bit halves the amount of entities a partition can hold.
+         *
+         * @param partitionMode  Storage mode for the partitions of the pool
+         * @param generationBits Bits reserved for the generation segment of the IDs
+         * @return The new pool
+         */
+        public static AlmaPool create(Partition.Mode partitionMode, int generationBits) {
+            return new AlmaPool(partitionMode, new IdHandler(IdHandler.DEFAULT_PARTITION_BITS,
+                    IdHandler.DEFAULT_LINK_CAPACITY_BITS, generationBits), 0);
+        }
+
+        /**
+         * Creates a pool with a custom ID layout and world. Reserving fewer partition bits allows each composition to
+         * hold more entities, e.g. 8 partition bits give 2^23 entities to each one of 255 compositions. The world ID
+         * identifies the pool within the universal IDs of its entities. Universal IDs only add the world segment, so
+         * the amount of entities each composition can hold is always given by this layout.
+         *
+         * @param partitionMode Storage mode for the partitions of the pool
+         * @param idHandler     Layout of the entity IDs
+         * @param worldId       World segment of the universal IDs of the pool
+         * @return The new pool
+         */
+        public static AlmaPool create(Partition.Mode partitionMode, IdHandler idHandler, int worldId) {
+            return new AlmaPool(partitionMode, idHandler, worldId);
         }
     }
 }
@@ -0,0 +1,145 @@
+package alma;
+
+import alma.api.AlmaComponent;
+
+import java.util.Arrays;
+
+/**
+ * Records structural changes to be played back later by {@link AlmaPool#flushCommands()}. Creating, destroying or
+ * moving entities while a partition is being walked corrupts the walk, so systems record their changes instead and the
+ * pool applies them at a sync point. Each thread records into its own buffer, obtained through
+ * {@link AlmaPool#commands()}, so no synchronization is needed while recording.
+ * <p>
+ * Commands are stored in parallel arrays that are kept between flushes, so recording does not allocate once the
+ * buffer has grown to the size of a frame. Buffers of threads that have finished are recycled by the next flush.
+ *
+ * @author Santiago Barreiro
+ */
+public final class CommandBuffer {
+
+    // CONSTANTS
+    static final byte CREATE = 0;                   // Creates an entity with the payload components
+    static final byte DESTROY = 1;                  // Destroys the entity
+    static final byte ADD = 2;                      // Adds the payload component to the entity
+    static final byte REMOVE = 3;                   // Removes the payload component type from the entity
+    private static final int DEFAULT_SIZE = 64;
+
+    // ATTRIBUTES
+    private byte[] ops;                             // Operation of each command
+    private int[] entities;                         // Target entity of each command, unused for creations
+    private Object[] payloads;                      // Components or component type of each command
+    private int size;                               // Amount of recorded commands
+    private Thread owner;                           // Thread recording into the buffer, null while recycled
+
+    // CONSTRUCTORS
+    CommandBuffer() {
+        this.ops = new byte[DEFAULT_SIZE];
+        this.entities = new int[DEFAULT_SIZE];
+        this.payloads = new Object[DEFAULT_SIZE];
+        this.size = 0;
+    }
+
+    // GETTERS & SETTERS
+    public int size() {
+        return size;
+    }
+
+    byte op(int command) {
+        return ops[command];
+    }
+
+    int entity(int command) {
+        return entities[command];
+    }
+
+    Object payload(int command) {
+        return payloads[command];
+    }
+
+    Thread getOwner() {
+        return owner;
+    }
+
+    void setOwner(Thread owner) {
+        this.owner = owner;
+    }
+
+    // METHODS
+
+    /**
+     * Records the creation of an entity
+     *
+     * @param components Components of the new entity
+     */
+    public void createEntity(AlmaComponent[] components) {
+        record(CREATE, 0, components);
+    }
+
+    /**
+     * Records the destruction of an entity. Ignored on playback if the entity no longer exists.
+     *
+     * @param entity ID of the entity
+     */
+    public void destroyEntity(int entity) {
+        record(DESTROY, entity, null);
+    }
+
+    /**
+     * Records the addition of a component to an entity. Ignored on playback if the entity no longer exists or already
+     * has the component type.
+     *
+     * @param entity    ID of the entity
+     * @param component Component to add
+     */
+    public void addComponent(int entity, AlmaComponent component) {
+        record(ADD, entity, component);
+    }
+
+    /**
+     * Records the removal of a component type from an entity. Ignored on playback if the entity no longer exists or
+     * does not have the component type.
+     *
+     * @param entity ID of the entity
+     * @param type   Component type to remove
+     */
+    public void removeComponent(int entity, Class<?> type) {
+        record(REMOVE, entity, type);
+    }
+
+    private void record(byte op, int entity, Object payload) {
+        if (size == ops.length) grow(size << 1);
+        ops[size] = op;
+        entities[size] = entity;
+        payloads[size] = payload;
+        size++;
+    }
+
+    /**
+     * Appends the commands of this buffer to another buffer and empties this buffer.
+     *
+     * @param target Buffer receiving the commands
+     */
+    void drainTo(CommandBuffer target) {
+        if (size == 0) return;
+        if (target.size + size > target.ops.length) target.grow(Math.max(target.size + size, target.ops.length << 1));
+        System.arraycopy(ops, 0, target.ops, target.size, size);
+        System.arraycopy(entities, 0, target.entities, target.size, size);
+        System.arraycopy(payloads, 0, target.payloads, target.size, size);
+        target.size += size;
+        clear();
+    }
+
+    /**
+     * Discards every recorded command, releasing the references to their payloads
+     */
+    void clear() {
+        Arrays.fill(payloads, 0, size, null);
+        size = 0;
+    }
+
+    private void grow(int capacity) {
+        ops = Arrays.copyOf(ops, capacity);
+        entities = Arrays.copyOf(entities, capacity);
+        payloads = Arrays.copyOf(payloads, capacity);
+    }
+}
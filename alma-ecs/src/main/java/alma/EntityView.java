@@ -0,0 +1,73 @@
+package alma;
+
+import alma.api.AlmaComponent;
+import alma.api.AlmaFlatComponent;
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Reusable flyweight over the entities of a query. Partitions bind the view to each entity in turn instead of creating
+ * an entity instance, so walking a query with a view does not allocate anything per entity. The view, and the
+ * components obtained through it, are only valid until the consumer returns.
+ *
+ * @author Santiago Barreiro
+ */
+public final class EntityView {
+
+    // ATTRIBUTES
+    final int[] componentIndex;                     // Index of each viewed component type
+    final int[] columns;                            // Column of each viewed component in the current partition, or -1
+    final AlmaComponent[][] heapColumns;            // Heap column of each viewed component in the current chunk
+    final long[] flatOffsets;                       // Offset of each flat column within the current chunk segment
+    final long[] flatSizes;                         // Entry size of each flat column, 0 for heap columns
+    final AlmaFlatComponent[] flatViews;            // Views reused to return the flat components
+    MemorySegment flatSlots;                        // Off-heap memory of the current chunk
+    int[] entitySlots;                              // Entities of the current chunk
+    int pos;                                        // Position of the current entity within the chunk
+
+    // CONSTRUCTORS
+    EntityView(int[] componentIndex) {
+        this.componentIndex = componentIndex;
+        this.columns = new int[componentIndex.length];
+        this.heapColumns = new AlmaComponent[componentIndex.length][];
+        this.flatOffsets = new long[componentIndex.length];
+        this.flatSizes = new long[componentIndex.length];
+        this.flatViews = new AlmaFlatComponent[componentIndex.length];
+    }
+
+    // GETTERS
+
+    /**
+     * Gets the ID of the entity the view is currently bound to.
+     *
+     * @return ID of the entity
+     */
+    public int id() {
+        return entitySlots[pos];
+    }
+
+    /**
+     * Gets the component of the current entity at the specified position of the viewed component types. Flat
+     * components are returned through a view that is rebound for every entity.
+     *
+     * @param i Position of the component type within the viewed component types
+     * @return The component, or null if the entity does not have a component of that type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(int i) {
+        AlmaComponent[] column = heapColumns[i];
+        if (column != null) return (T) column[pos];
+        if (flatSizes[i] == 0) return null;
+        AlmaFlatComponent view = flatViews[i];
+        view.bind(flatSlots, flatOffsets[i] + pos * flatSizes[i]);
+        return (T) view;
+    }
+
+    /**
+     * Gets the amount of component types viewed.
+     *
+     * @return Amount of component types
+     */
+    public int size() {
+        return componentIndex.length;
+    }
+}
@@ -2,8 +2,17 @@ package alma;
 
 /**
  * Class to manage IDs for partition members. Generates IID (Internal ID) based on integers to optimize component and
- * entity localization. It also manages UUID generation allow entities to be universally identifiable between instances
- * of Alma.
+ * entity localization. IIDs are converted into 64 bit IDs by {@link LongIdHandler} to allow entities to be universally
+ * identifiable between instances of Alma.
+ * <p>
+ * IDs are made of a partition segment, an optional generation segment and an item segment, from the most to the least
+ * significant bits. The generation of an item is increased each time its ID is released, so IDs held after the removal
+ * of their entity no longer match the reused item. Generations wrap around after 2^generationBits reuses.
+ * <p>
+ * Partitions size their chunks adaptively: the first chunk holds 2^MIN_CHUNK_CAPACITY_BITS slots and each following
+ * chunk doubles the capacity of the previous one until the largest capacity, given by the chunk bits, is reached.
+ * {@link #getSlotChunk(int)} and {@link #getSlotChunkPos(int)} locate a slot within those chunks. In positional mode
+ * the slot of an entity is its item ID, while in packed mode items are mapped to slots through an indirection table.
  *
  * @author Santiago Barreiro
  */
@@ -12,7 +21,9 @@ public final class IdHandler {
     // CONSTANTS
     public static final int MAX_BITS = 31;                      // Max bits for an ID (31 -> signed integer)
     public static final int DEFAULT_PARTITION_BITS = 12;        // How many bits are reserved for the partition identification
-    public static final int DEFAULT_LINK_CAPACITY_BITS = 12;    // Default partition link capacity (2^capacity)
+    public static final int DEFAULT_LINK_CAPACITY_BITS = 12;    // Default capacity of the largest partition chunks (2^capacity)
+    public static final int DEFAULT_GENERATION_BITS = 0;        // Default generation bits, no stale ID detection
+    public static final int MIN_CHUNK_CAPACITY_BITS = 6;        // Capacity bits of the first chunk of a partition
 
     // ATTRIBUTES
     public final int maxPartitions;                             // Max amount of partitions
@@ -20,9 +31,15 @@ public final class IdHandler {
     public final int partitionBits;                             // Bits reserved fot the partition segment
     public final int partitionBitShift;                         // Bits reserved fot the partition segment
     public final int partitionMask;                             // Masks other bits so only the partition segment is visible
-    public final int partitionChunkCapacityBits;                // Partition chunk capacity bits
-    public final int partitionChunkCapacity;                    // Partition chunk capacity
-    public final int partitionChunkMask;                        // Masks the partition chunk bits
+    public final int generationBits;                            // Bits reserved for the generation segment
+    public final int generationShift;                           // Position of the generation segment
+    public final int generationMask;                            // Masks other bits so only the generation segment is visible
+    public final int partitionChunkCapacityBits;                // Capacity bits of the largest partition chunks
+    @Deprecated
+    public final int partitionChunkCapacity;                    // Capacity of the largest partition chunks
+    public final int partitionChunkMask;                        // Masks the position within the largest partition chunks
+    public final int partitionBaseChunkBits;                    // Capacity bits of the first partition chunk
+    public final int partitionLastGrowingChunk;                 // Index of the last chunk smaller than the largest size
     public final int itemMask;                                  // Masks other bits so only the item segment is visible
     public final int invalidValue = 1 << MAX_BITS;              // Value indicating a non valid ID
 
@@ -36,15 +53,26 @@ public final class IdHandler {
     }
 
     public IdHandler(int partitionBits, int linkBits) {
+        this(partitionBits, linkBits, DEFAULT_GENERATION_BITS);
+    }
+
+    public IdHandler(int partitionBits, int linkBits, int generationBits) {
+        if (partitionBits + generationBits + linkBits > MAX_BITS)
+            throw new IllegalArgumentException("Partition, generation and chunk bits don't fit within an ID");
         this.partitionBits = partitionBits;
         this.partitionBitShift = (MAX_BITS - partitionBits);
         this.maxPartitions = (1 << partitionBits) - 1;
+        this.generationBits = generationBits;
+        this.generationShift = partitionBitShift - generationBits;
+        this.generationMask = ((1 << generationBits) - 1) << generationShift;
         this.partitionChunkCapacityBits = linkBits;
         this.partitionChunkCapacity = (1 << linkBits);
         this.partitionChunkMask = ((1 << (linkBits)) - 1);
-        this.itemsPerPartition = (1 << partitionBitShift) - 1;
+        this.partitionBaseChunkBits = Math.min(MIN_CHUNK_CAPACITY_BITS, linkBits);
+        this.partitionLastGrowingChunk = linkBits - partitionBaseChunkBits;
+        this.itemsPerPartition = (1 << generationShift) - 1;
         this.partitionMask = maxPartitions << partitionBitShift;
-        this.itemMask = (1 << partitionBitShift) - 1;
+        this.itemMask = (1 << generationShift) - 1;
     }
 
     // METHODS
@@ -58,6 +86,27 @@ public final class IdHandler {
         return (partition << partitionBitShift & partitionMask) | item & itemMask;
     }
 
+    /**
+     * Generates an ID using the partition, generation and item ID within one single integer
+     * @param partition ID of the partition
+     * @param generation Generation of the item, only the lowest generation bits are kept
+     * @param item ID of the item
+     * @return The complete ID with the three segments merged
+     */
+    public int generateIID(int partition, int generation, int item) {
+        return (partition << partitionBitShift & partitionMask) | (generation << generationShift & generationMask)
+                | item & itemMask;
+    }
+
+    /**
+     * Gets the generation from an elements ID
+     * @param id ID of the element
+     * @return Generation of the item
+     */
+    public int getGeneration(int id) {
+        return (id & generationMask) >>> generationShift;
+    }
+
     /**
      * Gets the partition ID from an elements ID
      * @param id ID of the element
@@ -76,11 +125,62 @@ public final class IdHandler {
         return id & itemMask;
     }
 
+    /**
+     * Gets the amount of slots of a partition chunk. The first chunk holds the minimum capacity and each following one
+     * doubles the capacity of the previous one until the largest size is reached.
+     * @param chunkIndex Index of the chunk
+     * @return Amount of slots of the chunk
+     */
+    public int getChunkCapacity(int chunkIndex) {
+        if (chunkIndex > partitionLastGrowingChunk) return 1 << partitionChunkCapacityBits;
+        return 1 << (partitionBaseChunkBits + Math.max(0, chunkIndex - 1));
+    }
+
+    /**
+     * Gets the chunk holding a slot. The growing chunks cover the slots below the largest chunk size, so the index of a
+     * growing chunk is the bit length of the slot over the first chunk capacity, while the rest of the slots are
+     * divided in chunks of the largest size.
+     * @param slot Slot of the entity within its partition
+     * @return Index of the chunk
+     */
+    public int getSlotChunk(int slot) {
+        return Math.min(32 - Integer.numberOfLeadingZeros(slot >>> partitionBaseChunkBits), partitionLastGrowingChunk)
+                + (slot >>> partitionChunkCapacityBits);
+    }
+
+    /**
+     * Gets the position of a slot within its chunk. Within the growing chunks, the position is the slot without its
+     * highest bit, as each chunk starts at the power of two equal to its capacity.
+     * @param slot Slot of the entity within its partition
+     * @return Position within the chunk
+     */
+    public int getSlotChunkPos(int slot) {
+        int low = slot & partitionChunkMask;
+        int growing = (slot >>> partitionChunkCapacityBits) - 1 >> 31;  // All bits set within the growing chunks
+        return low ^ (Integer.highestOneBit(low >>> partitionBaseChunkBits) << partitionBaseChunkBits & growing);
+    }
+
+    /**
+     * Gets the position within its chunk of the entity with an ID. Only valid for positional partitions, where the slot
+     * of an entity is its item ID.
+     * @param id ID of the element
+     * @return Position within the chunk
+     * @deprecated Packed partitions map items to other slots, use {@link #getSlotChunkPos(int)} with the slot instead
+     */
+    @Deprecated
     public int getPartitionChunkPos(int id) {
-        return id & partitionChunkMask;
+        return getSlotChunkPos(getItemId(id));
     }
 
+    /**
+     * Gets the chunk holding the entity with an ID. Only valid for positional partitions, where the slot of an entity
+     * is its item ID.
+     * @param id ID of the element
+     * @return Index of the chunk
+     * @deprecated Packed partitions map items to other slots, use {@link #getSlotChunk(int)} with the slot instead
+     */
+    @Deprecated
     public int getPartitionChunk(int id) {
-        return (id & itemMask) >> partitionChunkCapacityBits;
+        return getSlotChunk(getItemId(id));
     }
 }
@@ -0,0 +1,155 @@
+package alma;
+
+import alma.utils.AlmaException;
+
+/**
+ * Class to manage 64 bit IDs. Long IDs are made of a world segment, a partition segment, a generation segment and an
+ * item segment, from the most to the least significant bits, which makes entities universally identifiable between
+ * instances of Alma: the world segment tells the pool an entity belongs to, while the rest of the segments locate the
+ * entity within that pool.
+ * <p>
+ * Long IDs only qualify the integer IDs of a pool with its world. Pools store their entities with the compact integer
+ * IDs of their {@link IdHandler}, and convert them from and to long IDs through {@link #fromLocal(int, IdHandler, int)}
+ * and {@link #toLocal(IdHandler, long)}, so the amount of entities a composition can hold is given by the item segment
+ * of the {@link IdHandler} of the pool. Every segment is decoded with a single mask and shift, and the conversions
+ * reject segments that don't fit within the target layout instead of aliasing them with another entity.
+ *
+ * @author Santiago Barreiro
+ */
+public final class LongIdHandler {
+
+    // CONSTANTS
+    public static final int MAX_BITS = 63;                      // Max bits for an ID (63 -> signed long)
+    public static final int DEFAULT_WORLD_BITS = 16;            // How many bits are reserved for the world identification
+    public static final int DEFAULT_PARTITION_BITS = 12;        // How many bits are reserved for the partition identification
+    public static final int DEFAULT_GENERATION_BITS = 12;       // How many bits are reserved for the item generations
+    public static final int DEFAULT_ITEM_BITS = 23;             // How many bits are reserved for the item identification
+
+    // ATTRIBUTES
+    public final int worldBits;                                 // Bits reserved for the world segment
+    public final int worldShift;                                // Position of the world segment
+    public final long worldMask;                                // Masks other bits so only the world segment is visible
+    public final int partitionBits;                             // Bits reserved for the partition segment
+    public final int partitionShift;                            // Position of the partition segment
+    public final long partitionMask;                            // Masks other bits so only the partition segment is visible
+    public final int generationBits;                            // Bits reserved for the generation segment
+    public final int generationShift;                           // Position of the generation segment
+    public final long generationMask;                           // Masks other bits so only the generation segment is visible
+    public final int itemBits;                                  // Bits reserved for the item segment
+    public final long itemMask;                                 // Masks other bits so only the item segment is visible
+    public final long invalidValue = 1L << MAX_BITS;            // Value indicating a non valid ID
+
+    // CONSTRUCTORS
+    public LongIdHandler() {
+        this(DEFAULT_WORLD_BITS, DEFAULT_PARTITION_BITS, DEFAULT_GENERATION_BITS, DEFAULT_ITEM_BITS);
+    }
+
+    public LongIdHandler(int worldBits, int partitionBits, int generationBits, int itemBits) {
+        if (worldBits + partitionBits + generationBits + itemBits > MAX_BITS)
+            throw new IllegalArgumentException("World, partition, generation and item bits don't fit within an ID");
+        this.itemBits = itemBits;
+        this.itemMask = (1L << itemBits) - 1;
+        this.generationBits = generationBits;
+        this.generationShift = itemBits;
+        this.generationMask = ((1L << generationBits) - 1) << generationShift;
+        this.partitionBits = partitionBits;
+        this.partitionShift = generationShift + generationBits;
+        this.partitionMask = ((1L << partitionBits) - 1) << partitionShift;
+        this.worldBits = worldBits;
+        this.worldShift = partitionShift + partitionBits;
+        this.worldMask = ((1L << worldBits) - 1) << worldShift;
+    }
+
+    // METHODS
+    /**
+     * Generates an ID merging the world, partition, generation and item IDs within one single long
+     * @param world ID of the world
+     * @param partition ID of the partition
+     * @param generation Generation of the item, only the lowest generation bits are kept
+     * @param item ID of the item
+     * @return The complete ID with the four segments merged
+     */
+    public long generateId(int world, int partition, int generation, long item) {
+        return ((long) world << worldShift & worldMask) | ((long) partition << partitionShift & partitionMask)
+                | ((long) generation << generationShift & generationMask) | item & itemMask;
+    }
+
+    /**
+     * Creates a long ID layout with the default world segment followed by the segments of an integer ID layout, so
+     * every integer ID of that layout can be converted into a long ID and back without losing bits.
+     * @param local Handler of the integer IDs
+     * @return The long ID layout
+     */
+    public static LongIdHandler of(IdHandler local) {
+        return new LongIdHandler(DEFAULT_WORLD_BITS, local.partitionBits, local.generationBits, local.generationShift);
+    }
+
+    /**
+     * Converts an integer ID of a pool into a long ID
+     * @param world ID of the world of the pool
+     * @param local Handler of the integer IDs of the pool
+     * @param id Integer ID
+     * @return The long ID
+     */
+    public long fromLocal(int world, IdHandler local, int id) {
+        int partition = local.getPartitionId(id);
+        int generation = local.getGeneration(id);
+        int item = local.getItemId(id);
+        if ((world & ~(worldMask >>> worldShift)) != 0 || (partition & ~(partitionMask >>> partitionShift)) != 0
+                || (generation & ~(generationMask >>> generationShift)) != 0 || (item & ~itemMask) != 0)
+            throw new AlmaException("Tried to convert an ID that doesn't fit within the long ID layout");
+        return generateId(world, partition, generation, item);
+    }
+
+    /**
+     * Converts a long ID into the integer ID of its pool. The world segment is dropped. Throws an exception if the
+     * partition, generation or item segments don't fit within the integer ID layout.
+     * @param local Handler of the integer IDs of the pool
+     * @param id Long ID
+     * @return The integer ID
+     */
+    public int toLocal(IdHandler local, long id) {
+        int partition = getPartitionId(id);
+        int generation = getGeneration(id);
+        long item = getItemId(id);
+        if (partition > local.maxPartitions || generation >>> local.generationBits != 0 || item > local.itemMask)
+            throw new AlmaException("Tried to convert a long ID that doesn't fit within the integer ID layout");
+        return local.generateIID(partition, generation, (int) item);
+    }
+
+    /**
+     * Gets the world ID from an elements ID
+     * @param id ID of the element
+     * @return ID of the world
+     */
+    public int getWorldId(long id) {
+        return (int) ((id & worldMask) >>> worldShift);
+    }
+
+    /**
+     * Gets the partition ID from an elements ID
+     * @param id ID of the element
+     * @return ID of the partition
+     */
+    public int getPartitionId(long id) {
+        return (int) ((id & partitionMask) >>> partitionShift);
+    }
+
+    /**
+     * Gets the generation from an elements ID
+     * @param id ID of the element
+     * @return Generation of the item
+     */
+    public int getGeneration(long id) {
+        return (int) ((id & generationMask) >>> generationShift);
+    }
+
+    /**
+     * Gets the item ID from an elements ID
+     * @param id ID of the element
+     * @return ID of the item
+     */
+    public long getItemId(long id) {
+        return id & itemMask;
+    }
+}
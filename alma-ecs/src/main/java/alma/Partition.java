@@ -1,20 +1,52 @@
 package alma;
 
 import alma.api.AlmaComponent;
+import alma.api.AlmaFlatComponent;
+import alma.api.ComponentLayout;
+import alma.api.EntityConsumers;
 import alma.compositions.ClassIndex;
 import alma.utils.AlmaException;
+import alma.utils.ComponentFactory;
 import alma.utils.IntStack;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.function.Consumer;
 
 /**
- * A partition is a linked data structure that holds the data from a specific entity composition.
+ * A partition is a linked data structure that holds the data from a specific entity composition. Component types that
+ * extend {@link AlmaFlatComponent} are not stored as objects but packed into one off-heap memory segment per chunk,
+ * while the rest of the component types are stored in heap columns.
+ * <p>
+ * In {@link Mode#POSITIONAL} mode the position of an entity within the chunks is given by its ID, so removed entities
+ * leave holes behind. In {@link Mode#PACKED} mode the last entity is moved into the hole left by a removal, keeping all
+ * the entities in the first positions of the partition, and an indirection table maps each ID to its position.
+ * <p>
+ * Chunks are sized per partition: the first chunk holds {@link #MIN_CHUNK_CAPACITY} entities and each following chunk
+ * doubles the capacity of the previous one, up to the chunk capacity of the {@link IdHandler}. Rare compositions only
+ * allocate small chunks, while large compositions end up in full size chunks. Slots are still decoded into a chunk and
+ * a position with shifts and masks, without branches.
  *
  * @author Santiago Barreiro
  */
 public final class Partition {
 
+    /**
+     * Storage modes for the entities of a partition
+     */
+    public enum Mode {
+        POSITIONAL,                                     // Entities are stored in the position given by their ID
+        PACKED                                          // Entities are kept contiguous, IDs are mapped to positions
+    }
+
+    // CONSTANTS
+    public static final int MIN_CHUNK_CAPACITY_BITS = IdHandler.MIN_CHUNK_CAPACITY_BITS;   // Capacity bits of the first chunk
+    public static final int MIN_CHUNK_CAPACITY = 1 << MIN_CHUNK_CAPACITY_BITS;
+    private static final int NO_SLOT = -1;                          // Slot value for IDs without a packed position
+    private static final long[] NO_WORDS = new long[0];             // Occupancy of the virtual chunk before the first one
+
     // ATTRIBUTES - MAIN
     private final IdHandler idHandler;                  // IdHandler for the partition
     private final IntStack idStack;                     // IdStack of reusable IDs for the partition
@@ -22,27 +54,63 @@ public final class Partition {
     private final int[] componentLayout;                // Represents the order of the components inside the chunks
     private final int stride;                           // Stride of the composition stored in the partition
     private final int iid;                              // Internal ID of the partition
+    private final boolean packed;                       // True if the partition uses the packed storage mode
+    private int[] packedSlots;                          // Packed position of each item ID, only for the packed mode
+    private int[] generations;                          // Current generation of each item ID, null without generations
     private int usedChunks;                             // Current amount of used chunks
     private int size;                                   // Current amount of stored entities
 
+    // ATTRIBUTES - FLAT STORAGE
+    private final Class<?>[] columnTypes;               // Component type stored in each column, null if unknown
+    private final long[] flatSizes;                     // Byte size of each flat column entry, 0 for heap columns
+    private final long[] flatOffsets;                   // Byte offset of each flat column per slot of a chunk
+    private final long flatEntryBytes;                  // Bytes of off-heap memory needed by each slot of a chunk
+    private final ResourceScope scope;                  // Scope owning the off-heap memory of the chunks
+
     public Partition(int iid, IdHandler idHandler, int stride, int[] componentLayout) {
+        this(iid, idHandler, stride, componentLayout, null);
+    }
+
+    public Partition(int iid, IdHandler idHandler, int stride, int[] componentLayout, Class<?>[] columnTypes) {
+        this(iid, idHandler, stride, componentLayout, columnTypes, Mode.POSITIONAL);
+    }
+
+    public Partition(int iid, IdHandler idHandler, int stride, int[] componentLayout, Class<?>[] columnTypes, Mode mode) {
         this.idHandler = idHandler;
         this.idStack = new IntStack(idHandler.invalidValue);
-        this.chunksSlots = new PartitionChunk[1 << idHandler.partitionBitShift >> idHandler.partitionChunkCapacityBits];
+        this.chunksSlots = new PartitionChunk[chunkOf(idHandler.itemMask) + 1];
         this.componentLayout = componentLayout;
         this.stride = stride;
         this.iid = iid;
+        this.packed = mode == Mode.PACKED;
+        this.packedSlots = packed ? new int[1 << idHandler.partitionBaseChunkBits] : null;
+        this.generations = idHandler.generationBits == 0 ? null : new int[1 << idHandler.partitionBaseChunkBits];
         this.usedChunks = 0;
         this.size = 0;
+        this.columnTypes = columnTypes;
+        this.flatSizes = new long[stride];
+        this.flatOffsets = new long[stride];
+        long entryBytes = 0;
+        for (int i = 0; columnTypes != null && i < stride; i++) {
+            ComponentLayout layout = AlmaFlatComponent.layoutOf(columnTypes[i]);
+            if (layout == null) continue;
+            flatSizes[i] = layout.byteSize();
+            flatOffsets[i] = entryBytes;
+            entryBytes += layout.byteSize();
+        }
+        this.flatEntryBytes = entryBytes;
+        // The memory of the chunks is released once the partition is no longer reachable
+        this.scope = entryBytes == 0 ? null : ResourceScope.newImplicitScope();
     }
 
     // METHODS
 
     /**
+     * Orders the passed components so each one of them matches its column in the partition layout.
      *
-     * @param components
-     * @param classIndex
-     * @return
+     * @param components Array of component instances in any order
+     * @param classIndex Class index used to generate the component layout of the partition
+     * @return Array of components aligned with the partition layout
      */
     private AlmaComponent[] alignComponents(AlmaComponent[] components, ClassIndex classIndex) {
         if (components.length != stride)
@@ -50,13 +118,74 @@ public final class Partition {
         AlmaComponent[] alignedComponents = new AlmaComponent[components.length];
         for (AlmaComponent component : components) {
             int cv = classIndex.get(component.getClass());
-            if (cv == -1)
+            if (cv >= componentLayout.length || componentLayout[cv] == -1)
                 throw new AlmaException("Tried to align a component type not supported by this partition");
             alignedComponents[componentLayout[cv]] = component;
         }
         return alignedComponents;
     }
 
+    /**
+     * Creates a new empty chunk, allocating the off-heap segment for its flat columns if the partition has any.
+     *
+     * @param chunkIndex Index of the chunk, which determines its capacity
+     * @return The new chunk
+     */
+    private PartitionChunk createChunk(int chunkIndex) {
+        int capacity = chunkCapacity(chunkIndex);
+        MemorySegment flatSlots = scope == null ? null : MemorySegment.allocateNative(flatEntryBytes * capacity, scope);
+        return new PartitionChunk(capacity, stride, idHandler.invalidValue, flatSizes, flatOffsets, flatSlots);
+    }
+
+    /**
+     * Gets the capacity of a chunk. The first chunk has the minimum capacity, and each following chunk doubles the
+     * capacity of the previous one until the largest size is reached.
+     *
+     * @param chunkIndex Index of the chunk
+     * @return Amount of entities the chunk can hold
+     */
+    int chunkCapacity(int chunkIndex) {
+        return idHandler.getChunkCapacity(chunkIndex);
+    }
+
+    /**
+     * Gets the chunk holding a slot, following the chunk sizes of the {@link IdHandler}.
+     *
+     * @param slot Slot of the entity
+     * @return Index of the chunk
+     */
+    private int chunkOf(int slot) {
+        return idHandler.getSlotChunk(slot);
+    }
+
+    /**
+     * Gets the position of a slot within its chunk, following the chunk sizes of the {@link IdHandler}.
+     *
+     * @param slot Slot of the entity
+     * @return Position within the chunk
+     */
+    private int posOf(int slot) {
+        return idHandler.getSlotChunkPos(slot);
+    }
+
+    /**
+     * Gets the component stored in a column of a chunk. Components of flat columns are returned as new views bound to
+     * the off-heap memory of the chunk.
+     *
+     * @param chunk  Chunk holding the component
+     * @param column Column of the component type, -1 for types not stored in the partition
+     * @param pos    Position of the entity within the chunk
+     * @return The component stored in that position, null for types not stored in the partition
+     */
+    private AlmaComponent fetchComponent(PartitionChunk chunk, int column, int pos) {
+        if (column == -1) return null;
+        AlmaComponent[] heapColumn = chunk.componentColumns[column];
+        if (heapColumn != null) return heapColumn[pos];
+        AlmaFlatComponent view = (AlmaFlatComponent) AlmaFlatComponent.newView(columnTypes[column]);
+        view.bind(chunk.flatSlots, chunk.flatOffset(column, pos));
+        return view;
+    }
+
     /**
      * UNSAFE. Adds the passed list of components as an entity for this partition. Assumes that the components are aligned
      * with the component layout for the partition
@@ -65,23 +194,82 @@ public final class Partition {
      * @return ID of the new entity
      */
     public int addEntityUnsafe(AlmaComponent[] components) {
-        int id = idStack.pop();
-        if (id == idHandler.invalidValue) id = idHandler.generateIID(iid, size);
-        int chunkId = idHandler.getPartitionChunk(id);
-        int chunkPos = idHandler.getPartitionChunkPos(id);
+        int id = reserveEntity();
+        int slot = slotOf(id);
+        chunksSlots[chunkOf(slot)]
+                .setComponents(posOf(slot), stride, components);
+        return id;
+    }
+
+    /**
+     * Reserves the slot for a new entity, marking it as occupied. The components of the slot must be set afterwards.
+     *
+     * @return ID of the new entity
+     */
+    private int reserveEntity() {
+        int recycled = idStack.pop();
+        int id = issueId(recycled == idHandler.invalidValue ? size : idHandler.getItemId(recycled));
+        int slot = packed ? size : idHandler.getItemId(id);
+        if (packed) setPackedSlot(idHandler.getItemId(id), slot);
+        int chunkId = chunkOf(slot);
 
         PartitionChunk chunk = chunksSlots[chunkId];
         // Lazily create target chunk if it was null before addition
         if (chunk == null) {
-            chunk = new PartitionChunk(idHandler.partitionChunkCapacity, stride, idHandler.invalidValue);
+            chunk = createChunk(chunkId);
             chunksSlots[chunkId] = chunk;
             usedChunks++;
         }
-        chunk.setEntity(chunkPos, id, stride, components);
+        chunk.occupy(posOf(slot), id);
         size++;
         return id;
     }
 
+    /**
+     * Moves an entity of this partition into another partition, following the column mapping of a composition edge.
+     * Heap components are moved by reference and flat components are copied, so no component array is created. The
+     * entity gets a new ID from the target partition and its ID in this partition is released.
+     *
+     * @param entity        ID of the entity to move
+     * @param target        Partition to move the entity into
+     * @param sourceColumns Column of this partition for each column of the target, -1 for the added component type
+     * @param added         Component for the target column with no source column, null if none
+     * @return ID of the entity within the target partition
+     */
+    int migrateEntity(int entity, Partition target, int[] sourceColumns, AlmaComponent added) {
+        if (idHandler.getPartitionId(entity) != iid)
+            throw new AlmaException("Tried to move an entity with a different partition id");
+        if (!contains(entity))
+            throw new AlmaException("Tried to move a non-existing entity");
+        int slot = slotOf(entity);
+        PartitionChunk source = chunksSlots[chunkOf(slot)];
+        int pos = posOf(slot);
+
+        int id = target.reserveEntity();
+        int targetSlot = target.slotOf(id);
+        PartitionChunk chunk = target.chunksSlots[target.chunkOf(targetSlot)];
+        int targetPos = target.posOf(targetSlot);
+        for (int i = 0; i < target.stride; i++) {
+            int column = sourceColumns[i];
+            AlmaComponent[] targetColumn = chunk.componentColumns[i];
+            if (column == -1) {
+                if (targetColumn == null) ((AlmaFlatComponent) added).storeInto(chunk.flatSlots, chunk.flatOffset(i, targetPos));
+                else targetColumn[targetPos] = added;
+            } else if (targetColumn == null) {
+                chunk.flatSlots.asSlice(chunk.flatOffset(i, targetPos), target.flatSizes[i])
+                        .copyFrom(source.flatSlots.asSlice(source.flatOffset(column, pos), flatSizes[column]));
+            } else {
+                // The pooled instance of the target slot is left behind in the released slot
+                AlmaComponent[] sourceColumn = source.componentColumns[column];
+                AlmaComponent pooled = targetColumn[targetPos];
+                targetColumn[targetPos] = sourceColumn[pos];
+                sourceColumn[pos] = pooled;
+            }
+        }
+        removeEntity(entity);
+        return id;
+    }
+
     /**
      * Adds the passed list of components as an entity for this partition. Orders the components to match the partition
      * layout.
@@ -90,37 +278,358 @@ public final class Partition {
      * @return ID of the new entity
      */
     public int addEntitySafe(AlmaComponent[] components, ClassIndex classIndex) {
+        return addEntityUnsafe(alignComponents(components, classIndex));
+    }
 
-        int id = idStack.pop();
-        if (id == idHandler.invalidValue) id = idHandler.generateIID(iid, size);
-        int chunkId = idHandler.getPartitionChunk(id);
-        int chunkPos = idHandler.getPartitionChunkPos(id);
+    /**
+     * Immediately sets the specified entity to an invalid value, so it can be reused later.
+     *
+     * @param entity ID of the entity to remove
+     */
+    public void removeEntity(int entity) {
+        if (idHandler.getPartitionId(entity) != iid)
+            throw new AlmaException("Tried to remove an entity with a different partition id");
+        if (!contains(entity))
+            throw new AlmaException("Tried to remove a non-existing entity");
+        int slot = slotOf(entity);
+        if (packed) {
+            // The last entity fills the hole, so the partition stays contiguous
+            int last = size - 1;
+            if (slot != last) moveSlot(last, slot);
+            packedSlots[idHandler.getItemId(entity)] = NO_SLOT;
+            slot = last;
+        }
+        chunksSlots[chunkOf(slot)]
+                .clearEntity(posOf(slot), idHandler.invalidValue);
+        idStack.push(entity);
+        retireId(entity);
+        size--;
+    }
+
+    /**
+     * Creates the ID for an item, with the current generation of the item if the IDs have generation bits.
+     *
+     * @param item Item ID
+     * @return The complete ID of the item
+     */
+    private int issueId(int item) {
+        if (generations == null) return idHandler.generateIID(iid, item);
+        if (item >= generations.length) generations = Arrays.copyOf(generations, Math.max(item + 1, generations.length << 1));
+        return idHandler.generateIID(iid, generations[item], item);
+    }
+
+    /**
+     * Advances the generation of the item of a released ID, so the released ID never matches the next entity stored
+     * with the same item.
+     *
+     * @param entity Released ID
+     */
+    private void retireId(int entity) {
+        if (generations != null) generations[idHandler.getItemId(entity)]++;
+    }
+
+    /**
+     * Moves every entity of this partition into another partition, following the column mapping of a composition edge,
+     * and leaves this partition empty. Entities are moved in runs of contiguous positions: heap columns are moved with
+     * array copies and flat columns with one segment copy per column and run. Target IDs are generated in sequence
+     * while the target has no recycled IDs to hand out, one at a time otherwise.
+     *
+     * @param target        Partition to move the entities into
+     * @param sourceColumns Column of this partition for each column of the target, -1 for the added component type
+     * @param added         Template of the component for the target column with no source column, null if none. Each
+     *                      entity gets its own copy of it
+     * @param moved         Function receiving the previous and new ID of each entity, null if not needed
+     * @return Amount of moved entities
+     */
+    int migrateAll(Partition target, int[] sourceColumns, AlmaComponent added, EntityConsumers.Moved moved) {
+        int migrated = size;
+        for (int c = 0; c < usedChunks; c++) {
+            PartitionChunk chunk = chunksSlots[c];
+            if (chunk == null || chunk.population == 0) continue;
+            long[] occupancy = chunk.occupancy;
+            for (int w = 0; w < occupancy.length; w++) {
+                long word = occupancy[w];
+                while (word != 0) {
+                    // Next run of set bits within the word
+                    int start = Long.numberOfTrailingZeros(word);
+                    long shifted = word >>> start;
+                    int length = shifted == -1L ? 64 : Long.numberOfTrailingZeros(~shifted);
+                    word &= length == 64 ? 0 : ~(((1L << length) - 1) << start);
+                    target.receiveRun(this, chunk, (w << 6) + start, length, sourceColumns, added, moved);
+                }
+            }
+        }
+        clear();
+        return migrated;
+    }
+
+    /**
+     * Stores a run of entities of another partition. Heap components are moved out of the source chunk, which loses
+     * them, so they are never shared between both partitions.
+     *
+     * @param origin        Partition the entities come from
+     * @param source        Chunk holding the entities
+     * @param pos           Position of the first entity within the source chunk
+     * @param length        Amount of contiguous entities
+     * @param sourceColumns Column of the source partition for each column of this partition, -1 for the added type
+     * @param added         Template of the added component, null if none
+     * @param moved         Function receiving the previous and new ID of each entity, null if not needed
+     */
+    private void receiveRun(Partition origin, PartitionChunk source, int pos, int length, int[] sourceColumns,
+                            AlmaComponent added, EntityConsumers.Moved moved) {
+        while (length > 0) {
+            if (!packed && !idStack.isEmpty()) {
+                // Recycled IDs are scattered within the positional slots, so they are filled one by one
+                int id = reserveEntity();
+                int slot = idHandler.getItemId(id);
+                copyRun(origin, source, pos, chunksSlots[chunkOf(slot)],
+                        posOf(slot), 1, sourceColumns, added);
+                if (moved != null) moved.accept(source.entitySlots[pos], id);
+                pos++;
+                length--;
+                continue;
+            }
+            int slot = size;
+            int count = reserveRun(length);
+            PartitionChunk chunk = chunksSlots[chunkOf(slot)];
+            int targetPos = posOf(slot);
+            copyRun(origin, source, pos, chunk, targetPos, count, sourceColumns, added);
+            if (moved != null) {
+                for (int i = 0; i < count; i++) moved.accept(source.entitySlots[pos + i], chunk.entitySlots[targetPos + i]);
+            }
+            pos += count;
+            length -= count;
+        }
+    }
 
+    /**
+     * Reserves a run of consecutive slots starting at the first free slot of the partition, up to the end of its chunk.
+     * IDs are popped from the recycled IDs in packed mode and generated in sequence otherwise, so in positional mode it
+     * can only be used while there are no recycled IDs. The components of the slots must be set afterwards.
+     *
+     * @param max Maximum amount of slots to reserve
+     * @return Amount of reserved slots
+     */
+    private int reserveRun(int max) {
+        int slot = size;
+        int chunkId = chunkOf(slot);
         PartitionChunk chunk = chunksSlots[chunkId];
         // Lazily create target chunk if it was null before addition
         if (chunk == null) {
-            chunk = new PartitionChunk(idHandler.partitionChunkCapacity, stride, idHandler.invalidValue);
+            chunk = createChunk(chunkId);
             chunksSlots[chunkId] = chunk;
             usedChunks++;
         }
-        chunk.setEntity(chunkPos, id, stride, components);
-        size++;
-        return id;
+        int pos = posOf(slot);
+        int count = Math.min(max, chunk.entitySlots.length - pos);
+        for (int i = 0; i < count; i++) {
+            int recycled = packed ? idStack.pop() : idHandler.invalidValue;
+            int id = issueId(recycled == idHandler.invalidValue ? size : idHandler.getItemId(recycled));
+            if (packed) setPackedSlot(idHandler.getItemId(id), size);
+            chunk.occupy(pos + i, id);
+            size++;
+        }
+        return count;
     }
 
     /**
-     * Immediately sets the specified entity to an invalid value, so it can be reused later.
+     * Adds several entities with copies of the same components. The template is aligned once, then runs of consecutive
+     * slots are reserved and filled column by column. Pooled heap components are overwritten with the values of the
+     * template, new copies are created for empty slots.
      *
-     * @param entity ID of the entity to remove
+     * @param count      Amount of entities to add
+     * @param template   Components of the entities, in any order
+     * @param classIndex Class index used to generate the component layout of the partition
+     * @param ids        Array receiving the IDs of the new entities, null if not needed
+     * @param offset     Position of the first ID within the array
      */
-    public void removeEntity(int entity) {
-        if (idHandler.getPartitionId(entity) != iid)
-            throw new AlmaException("Tried to remove an entity with a different partition id");
-        int chunkId = idHandler.getPartitionChunk(entity);
-        int chunkOPos = idHandler.getPartitionChunkPos(entity);
-        chunksSlots[chunkId].entitySlots[chunkOPos] = idHandler.invalidValue;
-        idStack.push(entity);
-        size--;
+    public void addEntities(int count, AlmaComponent[] template, ClassIndex classIndex, int[] ids, int offset) {
+        AlmaComponent[] aligned = alignComponents(template, classIndex);
+        int added = 0;
+        while (added < count) {
+            int slot;
+            int length;
+            if (!packed && !idStack.isEmpty()) {
+                // Recycled IDs are scattered within the positional slots, so they are filled one by one
+                slot = idHandler.getItemId(reserveEntity());
+                length = 1;
+            } else {
+                slot = size;
+                length = reserveRun(count - added);
+            }
+            PartitionChunk chunk = chunksSlots[chunkOf(slot)];
+            int pos = posOf(slot);
+            for (int i = 0; i < stride; i++) fillRun(chunk, i, pos, length, aligned[i]);
+            if (ids != null) System.arraycopy(chunk.entitySlots, pos, ids, offset + added, length);
+            added += length;
+        }
+    }
+
+    /**
+     * Sets a run of positions of a column to copies of a template component.
+     *
+     * @param chunk    Chunk holding the run
+     * @param column   Column to fill
+     * @param pos      First position of the run
+     * @param count    Amount of positions
+     * @param template Component to copy
+     */
+    private void fillRun(PartitionChunk chunk, int column, int pos, int count, AlmaComponent template) {
+        AlmaComponent[] heapColumn = chunk.componentColumns[column];
+        for (int p = pos; p < pos + count; p++) {
+            if (heapColumn == null) ((AlmaFlatComponent) template).storeInto(chunk.flatSlots, chunk.flatOffset(column, p));
+            else if (heapColumn[p] != null) heapColumn[p].copy(template);
+            else heapColumn[p] = ComponentFactory.copyOf(template);
+        }
+    }
+
+    /**
+     * Copies the components of a run of contiguous entities from a chunk of another partition into a chunk of this
+     * partition.
+     */
+    private void copyRun(Partition origin, PartitionChunk source, int sourcePos, PartitionChunk target, int targetPos,
+                         int count, int[] sourceColumns, AlmaComponent added) {
+        for (int i = 0; i < stride; i++) {
+            int column = sourceColumns[i];
+            AlmaComponent[] targetColumn = target.componentColumns[i];
+            if (column == -1) {
+                fillRun(target, i, targetPos, count, added);
+            } else if (targetColumn == null) {
+                target.flatSlots.asSlice(target.flatOffset(i, targetPos), flatSizes[i] * count)
+                        .copyFrom(source.flatSlots.asSlice(source.flatOffset(column, sourcePos), origin.flatSizes[column] * count));
+            } else {
+                AlmaComponent[] sourceColumn = source.componentColumns[column];
+                System.arraycopy(sourceColumn, sourcePos, targetColumn, targetPos, count);
+                Arrays.fill(sourceColumn, sourcePos, sourcePos + count, null);
+            }
+        }
+    }
+
+    /**
+     * Removes every entity of the partition at once. Chunks are kept allocated and reset in bulk, and the recycled IDs
+     * are discarded as IDs are generated again from the first item. The generations of all the items are advanced at
+     * once, so none of the released IDs match the new entities.
+     */
+    void clear() {
+        for (int c = 0; c < usedChunks; c++) {
+            PartitionChunk chunk = chunksSlots[c];
+            if (chunk == null || chunk.population == 0) continue;
+            Arrays.fill(chunk.entitySlots, idHandler.invalidValue);
+            Arrays.fill(chunk.occupancy, 0);
+            chunk.population = 0;
+        }
+        idStack.clear();
+        if (packed) Arrays.fill(packedSlots, NO_SLOT);
+        if (generations != null) for (int i = 0; i < generations.length; i++) generations[i]++;
+        size = 0;
+    }
+
+    /**
+     * Checks if an entity is currently stored within this partition. Removed IDs are not contained until reused. The
+     * invalid ID, which free slots hold, is never contained.
+     *
+     * @param entity ID of the entity
+     * @return True if the entity is stored in this partition
+     */
+    public boolean contains(int entity) {
+        if (entity < 0 || idHandler.getPartitionId(entity) != iid) return false;
+        int item = idHandler.getItemId(entity);
+        int slot = packed ? (item < packedSlots.length ? packedSlots[item] : NO_SLOT) : item;
+        if (slot < 0) return false;
+        PartitionChunk chunk = chunksSlots[chunkOf(slot)];
+        return chunk != null && chunk.entitySlots[posOf(slot)] == entity;
+    }
+
+    /**
+     * Gets the internal ID of the partition, which is the partition segment of the IDs of its entities
+     *
+     * @return Internal ID of the partition
+     */
+    int getIid() {
+        return iid;
+    }
+
+    /**
+     * Removes several entities of this partition. In positional mode, IDs sorted by item are stored in ascending slots,
+     * so the chunks are cleared in a single ascending pass. In packed mode each removal moves the last entity into the
+     * hole left behind, one ID at a time, so the order of the IDs doesn't reduce the chunks touched. IDs of entities
+     * not stored in the partition are ignored.
+     *
+     * @param ids  Array of IDs of entities of this partition
+     * @param from Position of the first ID within the array
+     * @param to   Position after the last ID within the array
+     * @return Amount of removed entities
+     */
+    int removeEntities(int[] ids, int from, int to) {
+        int removed = 0;
+        for (int i = from; i < to; i++) {
+            int entity = ids[i];
+            if (!contains(entity)) continue;
+            if (packed) {
+                removeEntity(entity);
+            } else {
+                int item = idHandler.getItemId(entity);
+                chunksSlots[chunkOf(item)]
+                        .clearEntity(posOf(item), idHandler.invalidValue);
+                idStack.push(entity);
+                retireId(entity);
+                size--;
+            }
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Gets the storage slot of an entity, which is its item ID in positional mode or its packed position otherwise.
+     * Chunk and position within the chunk are obtained by splitting the slot bits.
+     *
+     * @param entity ID of the entity
+     * @return Slot where the entity is stored
+     */
+    private int slotOf(int entity) {
+        int item = idHandler.getItemId(entity);
+        return packed ? packedSlots[item] : item;
+    }
+
+    /**
+     * Sets the packed position of an item ID, growing the indirection table if needed.
+     *
+     * @param item Item ID of the entity
+     * @param slot Packed position of the entity
+     */
+    private void setPackedSlot(int item, int slot) {
+        if (item >= packedSlots.length) packedSlots = Arrays.copyOf(packedSlots, Math.max(item + 1, packedSlots.length << 1));
+        packedSlots[item] = slot;
+    }
+
+    /**
+     * Moves the entity stored in a slot into another slot. Heap components are swapped so the pooled instances of the
+     * target slot are kept by the source slot, while flat components are copied.
+     *
+     * @param from Slot of the entity to move
+     * @param to   Slot to move the entity into
+     */
+    private void moveSlot(int from, int to) {
+        PartitionChunk source = chunksSlots[chunkOf(from)];
+        PartitionChunk target = chunksSlots[chunkOf(to)];
+        int sourcePos = posOf(from);
+        int targetPos = posOf(to);
+        for (int i = 0; i < stride; i++) {
+            AlmaComponent[] sourceColumn = source.componentColumns[i];
+            if (sourceColumn == null) {
+                target.flatSlots.asSlice(target.flatOffset(i, targetPos), flatSizes[i])
+                        .copyFrom(source.flatSlots.asSlice(source.flatOffset(i, sourcePos), flatSizes[i]));
+            } else {
+                AlmaComponent[] targetColumn = target.componentColumns[i];
+                AlmaComponent pooled = targetColumn[targetPos];
+                targetColumn[targetPos] = sourceColumn[sourcePos];
+                sourceColumn[sourcePos] = pooled;
+            }
+        }
+        int moved = source.entitySlots[sourcePos];
+        target.entitySlots[targetPos] = moved;
+        packedSlots[idHandler.getItemId(moved)] = to;
     }
 
     /**
@@ -153,9 +662,10 @@ public final class Partition {
         if (idHandler.getItemId(entity) == idHandler.invalidValue)
             throw new AlmaException("Tried to fetch components of a non-existing entity");
         AlmaComponent[] entityComponents = new AlmaComponent[stride];
-        int chunkId = idHandler.getPartitionChunk(entity);
-        int first = idHandler.getPartitionChunkPos(entity) * stride;
-        java.lang.System.arraycopy(chunksSlots[chunkId].componentsSlots, first, entityComponents, 0, stride);
+        int slot = slotOf(entity);
+        PartitionChunk chunk = chunksSlots[chunkOf(slot)];
+        int pos = posOf(slot);
+        for (int i = 0; i < stride; i++) entityComponents[i] = fetchComponent(chunk, i, pos);
         return entityComponents;
     }
 
@@ -172,14 +682,243 @@ public final class Partition {
             throw new AlmaException("Tried to fetch components of a non-existing entity");
 
         AlmaComponent[] entityComponents = new AlmaComponent[componentIndex.length];
-        int chunkId = idHandler.getPartitionChunk(entity);
-        int first = idHandler.getPartitionChunkPos(entity) * stride;
+        int slot = slotOf(entity);
+        PartitionChunk chunk = chunksSlots[chunkOf(slot)];
+        int pos = posOf(slot);
         for (int i = 0; i < componentIndex.length; i++) {
-            entityComponents[i] = chunksSlots[chunkId].componentsSlots[first + this.componentLayout[componentIndex[i]]];
+            entityComponents[i] = fetchComponent(chunk, this.componentLayout[componentIndex[i]], pos);
         }
         return entityComponents;
     }
 
+    /**
+     * Gets a single component of an entity, without copying the rest of its components. Heap components are returned
+     * as stored, while flat components are returned as a new view bound to the off-heap memory of the entity; use
+     * {@link #bindComponent(int, int, AlmaFlatComponent)} to read them through a reusable view instead.
+     *
+     * @param entity         ID of the entity
+     * @param componentIndex Index of the component type
+     * @return The component of the entity, null if the type is not stored in the partition
+     */
+    public AlmaComponent getComponent(int entity, int componentIndex) {
+        int slot = checkedSlotOf(entity);
+        return fetchComponent(chunksSlots[chunkOf(slot)], columnOf(componentIndex),
+                posOf(slot));
+    }
+
+    /**
+     * Binds a flat component view to the data of an entity, so the component can be read and written without any
+     * allocation.
+     *
+     * @param entity         ID of the entity
+     * @param componentIndex Index of the flat component type
+     * @param view           View to bind
+     * @return True if the view was bound, false if the type is not stored as a flat column of the partition
+     */
+    public boolean bindComponent(int entity, int componentIndex, AlmaFlatComponent view) {
+        int slot = checkedSlotOf(entity);
+        int column = columnOf(componentIndex);
+        PartitionChunk chunk = chunksSlots[chunkOf(slot)];
+        if (column == -1 || chunk.componentColumns[column] != null) return false;
+        view.bind(chunk.flatSlots, chunk.flatOffset(column, posOf(slot)));
+        return true;
+    }
+
+    /**
+     * Overwrites a single component of an entity. Following the pooled component behaviour, the values are copied into
+     * the stored component, so the passed instance can be reused by the caller.
+     *
+     * @param entity         ID of the entity
+     * @param componentIndex Index of the component type
+     * @param component      Component holding the new values
+     * @return False if the type is not stored in the partition
+     */
+    public boolean setComponent(int entity, int componentIndex, AlmaComponent component) {
+        int slot = checkedSlotOf(entity);
+        int column = columnOf(componentIndex);
+        if (column == -1) return false;
+        PartitionChunk chunk = chunksSlots[chunkOf(slot)];
+        int pos = posOf(slot);
+        AlmaComponent[] heapColumn = chunk.componentColumns[column];
+        if (heapColumn == null) ((AlmaFlatComponent) component).storeInto(chunk.flatSlots, chunk.flatOffset(column, pos));
+        else if (heapColumn[pos] != null) heapColumn[pos].copy(component);
+        else heapColumn[pos] = component;
+        return true;
+    }
+
+    /**
+     * Gets the slot of an entity, checking that the entity is stored within this partition.
+     *
+     * @param entity ID of the entity
+     * @return Slot of the entity
+     */
+    private int checkedSlotOf(int entity) {
+        if (!contains(entity)) throw new AlmaException("Tried to access a non-existing entity");
+        return slotOf(entity);
+    }
+
+    private int columnOf(int componentIndex) {
+        return componentIndex < componentLayout.length ? componentLayout[componentIndex] : -1;
+    }
+
+    /**
+     * Gets the off-heap column of a flat component type within one of the chunks of the partition. The entries of the
+     * column can be read and written with the static column accessors generated for flat components.
+     *
+     * @param chunkIndex     Index of the chunk
+     * @param componentIndex Index of the flat component type
+     * @return Segment spanning the whole column within the chunk
+     */
+    public MemorySegment flatColumn(int chunkIndex, int componentIndex) {
+        int column = componentLayout[componentIndex];
+        if (column == -1 || flatSizes[column] == 0)
+            throw new AlmaException("Tried to fetch the flat column of a component type not stored as flat in this partition");
+        PartitionChunk chunk = chunksSlots[chunkIndex];
+        return chunk.flatSlots.asSlice(chunk.flatOffsets[column], flatSizes[column] * chunk.entitySlots.length);
+    }
+
+    /**
+     * Walks every entity of the partition, binding the view to each one of them before passing it to the consumer. No
+     * objects are created per entity.
+     *
+     * @param view     View over the component types to fetch
+     * @param consumer Function to call for each entity
+     */
+    void forEach(EntityView view, Consumer<EntityView> consumer) {
+        bindView(view);
+        for (int i = 0; i < usedChunks; i++) {
+            PartitionChunk chunk = chunksSlots[i];
+            if (chunk == null || chunk.population == 0) continue;
+            forEachInChunk(chunk, view, consumer);
+        }
+    }
+
+    /**
+     * Walks every entity of a single chunk of the partition. The view must have been bound to this partition before,
+     * which allows walking several chunks of the same partition with the same view.
+     *
+     * @param chunkIndex Index of the chunk to walk
+     * @param view       View bound to this partition
+     * @param consumer   Function to call for each entity
+     */
+    void forEachInChunk(int chunkIndex, EntityView view, Consumer<EntityView> consumer) {
+        PartitionChunk chunk = chunksSlots[chunkIndex];
+        if (chunk != null && chunk.population != 0) forEachInChunk(chunk, view, consumer);
+    }
+
+    /**
+     * Gets the amount of entities stored within one of the chunks of the partition.
+     *
+     * @param chunkIndex Index of the chunk
+     * @return Amount of entities in the chunk, 0 if the chunk has not been created
+     */
+    int chunkPopulation(int chunkIndex) {
+        PartitionChunk chunk = chunksSlots[chunkIndex];
+        return chunk == null ? 0 : chunk.population;
+    }
+
+    /**
+     * Finds the first position holding an entity within a chunk, starting from the given position.
+     *
+     * @param chunkIndex Index of the chunk
+     * @param from       First position to check
+     * @return The position of the next entity, -1 if there are no more entities in the chunk
+     */
+    int nextInChunk(int chunkIndex, int from) {
+        PartitionChunk chunk = chunksSlots[chunkIndex];
+        if (chunk == null) return -1;
+        if (packed) return from < chunk.population ? from : -1;
+        long[] occupancy = chunk.occupancy;
+        int w = from >> 6;
+        if (w >= occupancy.length) return -1;
+        long word = occupancy[w] & (-1L << (from & 63));
+        while (word == 0) {
+            if (++w == occupancy.length) return -1;
+            word = occupancy[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Creates the entity instance for a position of a chunk with the components of the given columns.
+     *
+     * @param chunkIndex Index of the chunk holding the entity
+     * @param pos        Position of the entity within the chunk
+     * @param columns    Columns to read, as returned by {@link #columnsOf(int[])}
+     * @return An entity instance with the components of the columns
+     */
+    Entity entityAt(int chunkIndex, int pos, int[] columns) {
+        return entityAt(chunksSlots[chunkIndex], pos, columns);
+    }
+
+    private Entity entityAt(PartitionChunk chunk, int pos, int[] columns) {
+        AlmaComponent[] components = new AlmaComponent[columns.length];
+        for (int i = 0; i < columns.length; i++) components[i] = fetchComponent(chunk, columns[i], pos);
+        return new Entity(chunk.getEntityAt(pos), components);
+    }
+
+    /**
+     * Translates component type indexes into the columns storing them within this partition.
+     *
+     * @param componentIndex Indexes of the component types
+     * @return The column of each component type, -1 for the types not stored in the partition
+     */
+    int[] columnsOf(int[] componentIndex) {
+        int[] columns = new int[componentIndex.length];
+        for (int i = 0; i < columns.length; i++) columns[i] = componentLayout[componentIndex[i]];
+        return columns;
+    }
+
+    /**
+     * Resolves the columns of the component types of a view for this partition. Component types not stored in the
+     * partition are resolved to -1, so the view returns null for them.
+     *
+     * @param view View to bind
+     */
+    void bindView(EntityView view) {
+        for (int i = 0; i < view.componentIndex.length; i++) {
+            int index = view.componentIndex[i];
+            int column = index < componentLayout.length ? componentLayout[index] : -1;
+            view.columns[i] = column;
+            view.flatSizes[i] = column == -1 ? 0 : flatSizes[column];
+            if (view.flatSizes[i] != 0 && view.flatViews[i] == null)
+                view.flatViews[i] = (AlmaFlatComponent) AlmaFlatComponent.newView(columnTypes[column]);
+        }
+    }
+
+    /**
+     * Walks the entities of a single chunk. Packed chunks are walked up to their population, positional chunks are
+     * walked through the set bits of their occupancy bitmap.
+     *
+     * @param chunk    Chunk to walk
+     * @param view     View already bound to this partition
+     * @param consumer Function to call for each entity
+     */
+    private void forEachInChunk(PartitionChunk chunk, EntityView view, Consumer<EntityView> consumer) {
+        for (int i = 0; i < view.columns.length; i++) {
+            view.heapColumns[i] = view.columns[i] == -1 ? null : chunk.componentColumns[view.columns[i]];
+            view.flatOffsets[i] = view.columns[i] == -1 ? 0 : chunk.flatOffsets[view.columns[i]];
+        }
+        view.flatSlots = chunk.flatSlots;
+        view.entitySlots = chunk.entitySlots;
+        if (packed) {
+            for (int pos = 0, population = chunk.population; pos < population; pos++) {
+                view.pos = pos;
+                consumer.accept(view);
+            }
+            return;
+        }
+        long[] occupancy = chunk.occupancy;
+        for (int w = 0; w < occupancy.length; w++) {
+            long word = occupancy[w];
+            while (word != 0) {
+                view.pos = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                consumer.accept(view);
+            }
+        }
+    }
+
     /**
      * Creates an iterator for the Partition that filters which component types are fetched within the partition. Does not
      * check for invalid component indexes or if the components themselves are stored in this composition.
@@ -192,20 +931,40 @@ public final class Partition {
     }
 
     /**
-     * Static private class that models a single partition chunk. Each chunk is of a fixed power-of-two size as to make
-     * fast bitwise operations as to fetch the chunk id and the entity chunk position
+     * Static private class that models a single partition chunk. Each chunk is of a power-of-two size as to make fast
+     * bitwise operations as to fetch the chunk id and the entity chunk position. Components are stored in columns,
+     * one array per component type, so walking a subset of the component types only touches the relevant arrays. Flat
+     * component types have no heap column, their data is kept in contiguous regions of the chunk off-heap segment.
+     * <p>
+     * An occupancy bitmap with one bit per position tracks which positions hold an entity, so iterators can jump between
+     * live positions using bit scans and skip chunks with no population at all.
      */
     private static class PartitionChunk {
 
         // ATTRIBUTES
         private final int[] entitySlots;                    // List of entities handled by the partition chunk
-        private final AlmaComponent[] componentsSlots;      // List of components handled by the partition chunk
+        private final long[] occupancy;                     // One bit per position, set when the position holds an entity
+        private int population;                             // Amount of entities stored within the chunk
+        private final AlmaComponent[][] componentColumns;   // One heap column per component type, null for flat columns
+        private final long[] flatSizes;                     // Byte size of each flat column entry, shared with the partition
+        private final long[] flatOffsets;                   // Byte offset of each flat column within the chunk segment
+        private final MemorySegment flatSlots;              // Off-heap memory of the flat columns, null if there are none
 
         // CONSTRUCTORS
-        private PartitionChunk(int chunkSize, int stride, int invalidValue) {
+        private PartitionChunk(int chunkSize, int stride, int invalidValue, long[] flatSizes, long[] flatOffsets,
+                               MemorySegment flatSlots) {
             this.entitySlots = new int[chunkSize];
             Arrays.fill(this.entitySlots, invalidValue);
-            this.componentsSlots = new AlmaComponent[chunkSize * stride];
+            this.occupancy = new long[Math.max(1, chunkSize >> 6)];
+            this.population = 0;
+            this.componentColumns = new AlmaComponent[stride][];
+            for (int i = 0; i < stride; i++) {
+                if (flatSizes[i] == 0) componentColumns[i] = new AlmaComponent[chunkSize];
+            }
+            this.flatSizes = flatSizes;
+            this.flatOffsets = new long[stride];
+            for (int i = 0; i < stride; i++) this.flatOffsets[i] = flatOffsets[i] * chunkSize;
+            this.flatSlots = flatSlots;
         }
 
         // METHODS
@@ -221,59 +980,87 @@ public final class Partition {
         }
 
         /**
-         * Sets the entity in the desired position to the desired internal ID and its corresponding components to the passed
-         * component array.
+         * Sets the components of the desired position. Pooled heap components are overwritten with the values of the
+         * passed components.
          *
          * @param pos        Position of the entity within the chunk
-         * @param entity     Internal ID of the entity
          * @param stride     Total offset or size of the component array
-         * @param components Array of components corresponding to the new entity
+         * @param components Array of components corresponding to the entity
          */
-        private void setEntity(int pos, int entity, int stride, AlmaComponent[] components) {
+        private void setComponents(int pos, int stride, AlmaComponent[] components) {
             for (int i = 0; i < stride; i++) {
-                int c_pos = pos * stride + i;
-                if (componentsSlots[c_pos] != null) componentsSlots[c_pos].copy(components[i]);
-                else componentsSlots[c_pos] = components[i];
+                AlmaComponent[] column = componentColumns[i];
+                if (column == null) ((AlmaFlatComponent) components[i]).storeInto(flatSlots, flatOffset(i, pos));
+                else if (column[pos] != null) column[pos].copy(components[i]);
+                else column[pos] = components[i];
             }
+        }
+
+        /**
+         * Marks the desired position as holding an entity
+         *
+         * @param pos    Position of the entity within the chunk
+         * @param entity Internal ID of the entity
+         */
+        private void occupy(int pos, int entity) {
             entitySlots[pos] = entity;
+            occupancy[pos >> 6] |= 1L << pos;
+            population++;
+        }
+
+        /**
+         * Sets the entity in the desired position to the invalid value and marks the position as free. Components are
+         * kept so they can be pooled.
+         *
+         * @param pos          Position of the entity within the chunk
+         * @param invalidValue Value indicating a non valid ID
+         */
+        private void clearEntity(int pos, int invalidValue) {
+            entitySlots[pos] = invalidValue;
+            occupancy[pos >> 6] &= ~(1L << pos);
+            population--;
+        }
+
+        /**
+         * Gets the byte offset of an entry of a flat column within the chunk segment.
+         *
+         * @param column Flat column
+         * @param pos    Position of the entity within the chunk
+         * @return Byte offset of the entry
+         */
+        private long flatOffset(int column, int pos) {
+            return flatOffsets[column] + pos * flatSizes[column];
         }
     }
 
     /**
      * An iterator class for partitions. By design, it will walk through every instanced chunk of the Partition and return
-     * an entity only when the internal ID of the entity is valid. The fetched components for each entity can be selected
+     * only the entities marked in the occupancy bitmaps of the chunks, skipping empty chunks entirely. The fetched components for each entity can be selected
      * by using a white list type filter, that will set the index values of the component classes to be fetched.
      */
     public static class PartitionIterator implements Iterator<Entity> {
 
         // ATTRIBUTES
         private final Partition origin;
-        private final int maxChunkCapacity;
-        private final int[] filter;
-        private int currentEntity;
-        private int nextEntityIndex;
+        private long[] occupancy;                           // Occupancy bitmap of the current chunk
+        private final int[] columns;                        // Column of each filtered component within the chunks
+        private long currentWord;                           // Occupancy bits of the current word not iterated yet
+        private int wordIndex;
         private int chunkIndex;
         private int iteratedEntities;
 
         // CONSTRUCTORS
         PartitionIterator(Partition origin) {
             this.origin = origin;
-            this.nextEntityIndex = 0;
-            this.filter = null;
-            this.chunkIndex = 0;
-            this.currentEntity = origin.idHandler.invalidValue;
-            this.iteratedEntities = 0;
-            this.maxChunkCapacity = origin.idHandler.partitionChunkCapacity;
+            this.columns = new int[origin.stride];
+            for (int i = 0; i < columns.length; i++) columns[i] = i;
+            reset();
         }
 
         PartitionIterator(Partition origin, int[] filter) {
             this.origin = origin;
-            this.nextEntityIndex = 0;
-            this.filter = filter;
-            this.chunkIndex = 0;
-            this.currentEntity = origin.idHandler.invalidValue;
-            this.iteratedEntities = 0;
-            this.maxChunkCapacity = origin.idHandler.partitionChunkCapacity;
+            this.columns = origin.columnsOf(filter);
+            reset();
         }
 
         // METHODS
@@ -282,8 +1069,11 @@ public final class Partition {
          * Resets the iterator so it can be reused
          */
         public void reset() {
-            this.nextEntityIndex = 0;
-            this.chunkIndex = 0;
+            // Positioned at the end of a virtual chunk before the first one, so the first call moves to a chunk
+            this.chunkIndex = -1;
+            this.occupancy = NO_WORDS;
+            this.wordIndex = 0;
+            this.currentWord = 0;
             this.iteratedEntities = 0;
         }
 
@@ -298,36 +1088,39 @@ public final class Partition {
         }
 
         /**
-         * Fetches the next valid entity within the partition. It loops through all the invalid elements in each chunk until
-         * it finds one with a valid ID.
+         * Fetches the next valid entity within the partition. It scans the occupancy bitmap of the current chunk for the
+         * next set bit, moving on to the next chunk with population when the current one is exhausted.
          *
          * @return An entity instance with the filtered components
          */
         @Override
         public Entity next() {
-            if (origin.usedChunks == 0 || chunkIndex >= origin.usedChunks)
+            if (origin.usedChunks == 0)
                 throw new AlmaException("Tried to iterate onto a non-used chunk slot. ¿Have you forgotten to check with hasNext()?");
-            boolean foundNext = false;
-            Entity e = null;
-            do {
-                currentEntity = origin.chunksSlots[chunkIndex].getEntityAt(nextEntityIndex);
-                if (currentEntity != origin.idHandler.invalidValue) {
-                    foundNext = true;
-                    iteratedEntities++;
-                    e = filter == null ?
-                            new Entity(currentEntity, origin.fetchEntityComponents(currentEntity)) :
-                            new Entity(currentEntity, origin.fetchEntityComponents(currentEntity, filter));
-                }
-
-                // Handle next entity and chunk index
-                nextEntityIndex++;
-                if (nextEntityIndex == maxChunkCapacity) {
-                    // When the next entity index is equal to the max chunk capacity, the next chunk is selected
-                    chunkIndex++;
-                    nextEntityIndex = 0;
+            if (origin.packed) {
+                // Packed partitions have no holes, so the next entity is always in the next slot
+                int slot = iteratedEntities++;
+                return origin.entityAt(origin.chunksSlots[origin.chunkOf(slot)],
+                        origin.posOf(slot), columns);
+            }
+            while (currentWord == 0) {
+                if (++wordIndex >= occupancy.length) {
+                    // Move to the next chunk holding any entity
+                    PartitionChunk chunk;
+                    do {
+                        if (++chunkIndex >= origin.usedChunks)
+                            throw new AlmaException("Tried to iterate onto a non-used chunk slot. ¿Have you forgotten to check with hasNext()?");
+                        chunk = origin.chunksSlots[chunkIndex];
+                    } while (chunk == null || chunk.population == 0);
+                    occupancy = chunk.occupancy;
+                    wordIndex = 0;
                 }
-            } while (!foundNext);
-            return e;
+                currentWord = occupancy[wordIndex];
+            }
+            int pos = (wordIndex << 6) + Long.numberOfTrailingZeros(currentWord);
+            currentWord &= currentWord - 1;
+            iteratedEntities++;
+            return origin.entityAt(origin.chunksSlots[chunkIndex], pos, columns);
         }
     }
 }
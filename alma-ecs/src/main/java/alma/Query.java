@@ -0,0 +1,135 @@
+package alma;
+
+import alma.compositions.ClassIndex;
+import alma.compositions.QuerySignature;
+import alma.utils.AlmaException;
+import alma.utils.BitIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiled entity query. The terms of the query are compiled once into a signature that accepts or rejects whole
+ * compositions, so the partitions of excluded compositions are never iterated. Queries are created through the builder
+ * returned by {@link AlmaPool#query()} and can only be run on the pool that created them.
+ * <p>
+ * The components fetched for each entity are the {@code with} types, followed by the {@code anyOf} types and the
+ * {@code optional} types, in the order they were added. Missing {@code anyOf} and {@code optional} components are null.
+ *
+ * @author Santiago Barreiro
+ */
+public final class Query {
+
+    // ATTRIBUTES
+    private final ClassIndex classIndex;            // Class index of the pool the query was compiled for
+    private final QuerySignature signature;         // Signature matching the compositions of the query
+    private final int[] componentIndex;             // Indexes of the fetched component types
+
+    // CONSTRUCTORS
+    private Query(ClassIndex classIndex, QuerySignature signature, int[] componentIndex) {
+        this.classIndex = classIndex;
+        this.signature = signature;
+        this.componentIndex = componentIndex;
+    }
+
+    // GETTERS & SETTERS
+    ClassIndex getClassIndex() {
+        return classIndex;
+    }
+
+    QuerySignature getSignature() {
+        return signature;
+    }
+
+    int[] getComponentIndex() {
+        return componentIndex;
+    }
+
+    /**
+     * Builder for queries. Every method adds types to one of the terms of the query.
+     */
+    public static final class Builder {
+
+        // ATTRIBUTES
+        private final ClassIndex classIndex;
+        private final List<Class<?>> with = new ArrayList<>();
+        private final List<Class<?>> without = new ArrayList<>();
+        private final List<Class<?>> anyOf = new ArrayList<>();
+        private final List<Class<?>> optional = new ArrayList<>();
+
+        // CONSTRUCTORS
+        Builder(ClassIndex classIndex) {
+            this.classIndex = classIndex;
+        }
+
+        // METHODS
+
+        /**
+         * Requires the entities to have all the component types
+         *
+         * @param types Required component types
+         * @return This builder
+         */
+        public Builder with(Class<?>... types) {
+            with.addAll(Arrays.asList(types));
+            return this;
+        }
+
+        /**
+         * Excludes the entities having any of the component types
+         *
+         * @param types Excluded component types
+         * @return This builder
+         */
+        public Builder without(Class<?>... types) {
+            without.addAll(Arrays.asList(types));
+            return this;
+        }
+
+        /**
+         * Requires the entities to have at least one of the component types. Calling it more than once extends the same
+         * group of types.
+         *
+         * @param types Component types of the group
+         * @return This builder
+         */
+        public Builder anyOf(Class<?>... types) {
+            anyOf.addAll(Arrays.asList(types));
+            return this;
+        }
+
+        /**
+         * Fetches the component types when the entities have them, without affecting which entities match
+         *
+         * @param types Optional component types
+         * @return This builder
+         */
+        public Builder optional(Class<?>... types) {
+            optional.addAll(Arrays.asList(types));
+            return this;
+        }
+
+        /**
+         * Compiles the query. Throws an exception if a type is both required and excluded.
+         *
+         * @return The compiled query
+         */
+        public Query build() {
+            for (Class<?> type : without) {
+                if (with.contains(type) || anyOf.contains(type))
+                    throw new AlmaException("Component type " + type.getSimpleName() + " can't be both queried and excluded");
+            }
+            QuerySignature signature = new QuerySignature(
+                    classIndex.getSignature(with.toArray(new Class<?>[0])),
+                    without.isEmpty() ? null : classIndex.getSignature(without.toArray(new Class<?>[0])),
+                    anyOf.isEmpty() ? null : classIndex.getSignature(anyOf.toArray(new Class<?>[0])));
+            int[] componentIndex = new int[with.size() + anyOf.size() + optional.size()];
+            int i = 0;
+            for (Class<?> type : with) componentIndex[i++] = classIndex.get(type);
+            for (Class<?> type : anyOf) componentIndex[i++] = classIndex.get(type);
+            for (Class<?> type : optional) componentIndex[i++] = classIndex.get(type);
+            return new Query(classIndex, signature, componentIndex);
+        }
+    }
+}
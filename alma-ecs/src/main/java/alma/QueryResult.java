@@ -1,11 +1,17 @@
 package alma;
 
 import alma.api.AlmaComponent;
+import alma.api.EntityConsumers;
+import alma.compositions.ClassIndex;
 import alma.compositions.Composition;
 import alma.utils.CompositionHash;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * QueryResult
@@ -17,16 +23,19 @@ public final class QueryResult {
     // ATTRIBUTES
     private final int[] componentIndex;
     private final Map<CompositionHash, Composition> queriedCompositions;
+    private final ClassIndex classIndex;
 
     // CONSTRUCTORS
-    public QueryResult(int[] query, Map<CompositionHash, Composition> queriedCompositions) {
+    public QueryResult(int[] query, Map<CompositionHash, Composition> queriedCompositions, ClassIndex classIndex) {
         this.componentIndex = query;
-        this.queriedCompositions = queriedCompositions;
+        this.queriedCompositions = queriedCompositions == null ? Collections.emptyMap() : queriedCompositions;
+        this.classIndex = classIndex;
     }
 
     // METHODS
     public QueryResult forEachEntity(Consumer<Entity> function) {
         for (Composition c : queriedCompositions.values()) {
+            if (c.getPartition() == null) continue;
             Iterator<Entity> filteredIterator = c.getPartition().filteredIterator(componentIndex);
             while (filteredIterator.hasNext()) {
                 function.accept(filteredIterator.next());
@@ -34,4 +43,363 @@ public final class QueryResult {
         }
         return this;
     }
+
+    /**
+     * Walks the queried entities through a single reusable view over the queried component types. Unlike
+     * {@link #forEachEntity(Consumer)}, nothing is allocated per entity.
+     *
+     * @param consumer Function to call for each entity
+     * @return This query result
+     */
+    public QueryResult forEachView(Consumer<EntityView> consumer) {
+        return forEachView(componentIndex, consumer);
+    }
+
+    private QueryResult forEachView(int[] viewIndex, Consumer<EntityView> consumer) {
+        EntityView view = new EntityView(viewIndex);
+        for (Composition c : queriedCompositions.values()) {
+            Partition partition = c.getPartition();
+            if (partition != null) partition.forEach(view, consumer);
+        }
+        return this;
+    }
+
+    /**
+     * Walks the queried entities in parallel on the common fork join pool. See
+     * {@link #forEachParallel(ForkJoinPool, Consumer)}.
+     *
+     * @param consumer Thread safe function to call for each entity
+     * @return This query result
+     */
+    public QueryResult forEachParallel(Consumer<EntityView> consumer) {
+        return forEachParallel(ForkJoinPool.commonPool(), componentIndex, consumer);
+    }
+
+    /**
+     * Walks the queried entities in parallel. Every non-empty chunk of the queried partitions is a work unit, the units
+     * are split recursively among the workers of the pool, which steal work from each other until all units are done.
+     * Each unit is walked with its own view. The entities must not be structurally modified while walking them.
+     *
+     * @param pool     Pool running the work units
+     * @param consumer Thread safe function to call for each entity
+     * @return This query result
+     */
+    public QueryResult forEachParallel(ForkJoinPool pool, Consumer<EntityView> consumer) {
+        return forEachParallel(pool, componentIndex, consumer);
+    }
+
+    private QueryResult forEachParallel(ForkJoinPool pool, int[] viewIndex, Consumer<EntityView> consumer) {
+        ChunkUnits units = new ChunkUnits(queriedCompositions.values());
+        if (units.size > 0) pool.invoke(new ChunkTask(units, 0, units.size, viewIndex, consumer));
+        return this;
+    }
+
+    /**
+     * Creates a spliterator over the queried entities. It splits at chunk boundaries, halving the population of the
+     * remaining chunks, and knows the exact amount of entities of every split.
+     *
+     * @return A sized spliterator over the queried entities
+     */
+    public Spliterator<Entity> spliterator() {
+        ChunkUnits units = new ChunkUnits(queriedCompositions.values());
+        return new EntitySpliterator(units, 0, units.size, componentIndex);
+    }
+
+    /**
+     * Creates a sequential stream of the queried entities. The chunks are looked up when the terminal operation starts.
+     *
+     * @return A stream of the queried entities
+     */
+    public Stream<Entity> stream() {
+        return StreamSupport.stream(this::spliterator, EntitySpliterator.CHARACTERISTICS, false);
+    }
+
+    /**
+     * Creates a parallel stream of the queried entities. The entities must not be structurally modified while the
+     * stream runs.
+     *
+     * @return A parallel stream of the queried entities
+     */
+    public Stream<Entity> parallelStream() {
+        return StreamSupport.stream(this::spliterator, EntitySpliterator.CHARACTERISTICS, true);
+    }
+
+    private int[] indexOf(Class<?>... types) {
+        int[] index = new int[types.length];
+        for (int i = 0; i < types.length; i++) index[i] = classIndex.get(types[i]);
+        return index;
+    }
+
+    /*
+     * Typed iteration. The components are read straight from the chunk columns through a view, so no entity instances
+     * nor component arrays are created. Component types that are not part of the query may be requested too, null is
+     * passed for the entities that do not have them.
+     */
+
+    public <A extends AlmaComponent> QueryResult forEach(Class<A> a, EntityConsumers.With1<A> consumer) {
+        return forEachView(indexOf(a), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent> QueryResult forEach(
+            Class<A> a, Class<B> b, EntityConsumers.With2<A, B> consumer) {
+        return forEachView(indexOf(a, b), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent, C extends AlmaComponent> QueryResult forEach(
+            Class<A> a, Class<B> b, Class<C> c, EntityConsumers.With3<A, B, C> consumer) {
+        return forEachView(indexOf(a, b, c), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent, C extends AlmaComponent, D extends AlmaComponent>
+    QueryResult forEach(Class<A> a, Class<B> b, Class<C> c, Class<D> d, EntityConsumers.With4<A, B, C, D> consumer) {
+        return forEachView(indexOf(a, b, c, d), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent, C extends AlmaComponent, D extends AlmaComponent,
+            E extends AlmaComponent> QueryResult forEach(Class<A> a, Class<B> b, Class<C> c, Class<D> d, Class<E> e,
+                                                         EntityConsumers.With5<A, B, C, D, E> consumer) {
+        return forEachView(indexOf(a, b, c, d, e), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent, C extends AlmaComponent, D extends AlmaComponent,
+            E extends AlmaComponent, F extends AlmaComponent> QueryResult forEach(
+            Class<A> a, Class<B> b, Class<C> c, Class<D> d, Class<E> e, Class<F> f,
+            EntityConsumers.With6<A, B, C, D, E, F> consumer) {
+        return forEachView(indexOf(a, b, c, d, e, f), adapt(consumer));
+    }
+
+    // Typed parallel iteration on the common fork join pool, the consumers must be thread safe
+
+    public <A extends AlmaComponent> QueryResult forEachParallel(Class<A> a, EntityConsumers.With1<A> consumer) {
+        return forEachParallel(ForkJoinPool.commonPool(), indexOf(a), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent> QueryResult forEachParallel(
+            Class<A> a, Class<B> b, EntityConsumers.With2<A, B> consumer) {
+        return forEachParallel(ForkJoinPool.commonPool(), indexOf(a, b), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent, C extends AlmaComponent> QueryResult forEachParallel(
+            Class<A> a, Class<B> b, Class<C> c, EntityConsumers.With3<A, B, C> consumer) {
+        return forEachParallel(ForkJoinPool.commonPool(), indexOf(a, b, c), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent, C extends AlmaComponent, D extends AlmaComponent>
+    QueryResult forEachParallel(Class<A> a, Class<B> b, Class<C> c, Class<D> d,
+                                EntityConsumers.With4<A, B, C, D> consumer) {
+        return forEachParallel(ForkJoinPool.commonPool(), indexOf(a, b, c, d), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent, C extends AlmaComponent, D extends AlmaComponent,
+            E extends AlmaComponent> QueryResult forEachParallel(Class<A> a, Class<B> b, Class<C> c, Class<D> d,
+                                                                 Class<E> e, EntityConsumers.With5<A, B, C, D, E> consumer) {
+        return forEachParallel(ForkJoinPool.commonPool(), indexOf(a, b, c, d, e), adapt(consumer));
+    }
+
+    public <A extends AlmaComponent, B extends AlmaComponent, C extends AlmaComponent, D extends AlmaComponent,
+            E extends AlmaComponent, F extends AlmaComponent> QueryResult forEachParallel(
+            Class<A> a, Class<B> b, Class<C> c, Class<D> d, Class<E> e, Class<F> f,
+            EntityConsumers.With6<A, B, C, D, E, F> consumer) {
+        return forEachParallel(ForkJoinPool.commonPool(), indexOf(a, b, c, d, e, f), adapt(consumer));
+    }
+
+    // Adapters from the typed consumers to view consumers
+
+    private static <A> Consumer<EntityView> adapt(EntityConsumers.With1<A> c) {
+        return view -> c.accept(view.id(), view.get(0));
+    }
+
+    private static <A, B> Consumer<EntityView> adapt(EntityConsumers.With2<A, B> c) {
+        return view -> c.accept(view.id(), view.get(0), view.get(1));
+    }
+
+    private static <A, B, C> Consumer<EntityView> adapt(EntityConsumers.With3<A, B, C> c) {
+        return view -> c.accept(view.id(), view.get(0), view.get(1), view.get(2));
+    }
+
+    private static <A, B, C, D> Consumer<EntityView> adapt(EntityConsumers.With4<A, B, C, D> c) {
+        return view -> c.accept(view.id(), view.get(0), view.get(1), view.get(2), view.get(3));
+    }
+
+    private static <A, B, C, D, E> Consumer<EntityView> adapt(EntityConsumers.With5<A, B, C, D, E> c) {
+        return view -> c.accept(view.id(), view.get(0), view.get(1), view.get(2), view.get(3), view.get(4));
+    }
+
+    private static <A, B, C, D, E, F> Consumer<EntityView> adapt(EntityConsumers.With6<A, B, C, D, E, F> c) {
+        return view -> c.accept(view.id(), view.get(0), view.get(1), view.get(2), view.get(3), view.get(4), view.get(5));
+    }
+
+    /**
+     * Snapshot of the non-empty chunks of the queried partitions, taken when a parallel walk starts. Each chunk is an
+     * independent unit of work.
+     */
+    private static final class ChunkUnits {
+
+        // ATTRIBUTES
+        private Partition[] partitions;             // Partition of each unit
+        private int[] chunks;                       // Chunk index of each unit within its partition
+        private long[] populated;                   // Amount of entities within the units before each unit
+        private int size;                           // Amount of units
+
+        // CONSTRUCTORS
+        private ChunkUnits(Collection<Composition> compositions) {
+            this.partitions = new Partition[16];
+            this.chunks = new int[16];
+            this.populated = new long[17];
+            this.size = 0;
+            for (Composition c : compositions) {
+                Partition partition = c.getPartition();
+                if (partition == null) continue;
+                for (int i = 0; i < partition.usedChunks(); i++) {
+                    int population = partition.chunkPopulation(i);
+                    if (population != 0) add(partition, i, population);
+                }
+            }
+        }
+
+        // METHODS
+        private void add(Partition partition, int chunk, int population) {
+            if (size == chunks.length) {
+                partitions = Arrays.copyOf(partitions, size << 1);
+                chunks = Arrays.copyOf(chunks, size << 1);
+                populated = Arrays.copyOf(populated, (size << 1) + 1);
+            }
+            partitions[size] = partition;
+            chunks[size] = chunk;
+            populated[size + 1] = populated[size] + population;
+            size++;
+        }
+
+        /**
+         * Gets the amount of entities within a range of units
+         *
+         * @param from First unit of the range
+         * @param to   Unit after the last one of the range
+         * @return Amount of entities within the units
+         */
+        private long population(int from, int to) {
+            return populated[to] - populated[from];
+        }
+    }
+
+    /**
+     * Fork join task walking a range of chunk units. Ranges are split in halves until a single unit is left, so idle
+     * workers can steal the pending halves.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        // CONSTANTS
+        private static final long serialVersionUID = 1L;
+
+        // ATTRIBUTES
+        private final ChunkUnits units;
+        private final int from;
+        private final int to;
+        private final int[] viewIndex;
+        private final Consumer<EntityView> consumer;
+
+        // CONSTRUCTORS
+        private ChunkTask(ChunkUnits units, int from, int to, int[] viewIndex, Consumer<EntityView> consumer) {
+            this.units = units;
+            this.from = from;
+            this.to = to;
+            this.viewIndex = viewIndex;
+            this.consumer = consumer;
+        }
+
+        // METHODS
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(units, from, middle, viewIndex, consumer),
+                        new ChunkTask(units, middle, to, viewIndex, consumer));
+                return;
+            }
+            EntityView view = new EntityView(viewIndex);
+            Partition partition = units.partitions[from];
+            partition.bindView(view);
+            partition.forEachInChunk(units.chunks[from], view, consumer);
+        }
+    }
+
+    /**
+     * Spliterator over a range of chunk units. Splits hand over the upper half of the remaining units, balanced by their
+     * population, so both halves keep an exact size. The unit being walked is never split.
+     */
+    private static final class EntitySpliterator implements Spliterator<Entity> {
+
+        // CONSTANTS
+        private static final int CHARACTERISTICS = SIZED | SUBSIZED | NONNULL | DISTINCT;
+
+        // ATTRIBUTES
+        private final ChunkUnits units;
+        private final int[] componentIndex;
+        private int unit;                           // Unit being walked
+        private int end;                            // Unit after the last one of the range
+        private int pos;                            // Next position to check within the unit being walked
+        private long remaining;                     // Entities not walked yet
+        private Partition partition;                // Partition the columns were resolved for
+        private int[] columns;                      // Columns of the queried components within the partition
+
+        // CONSTRUCTORS
+        private EntitySpliterator(ChunkUnits units, int from, int to, int[] componentIndex) {
+            this.units = units;
+            this.componentIndex = componentIndex;
+            this.unit = from;
+            this.end = to;
+            this.pos = 0;
+            this.remaining = units.population(from, to);
+        }
+
+        // METHODS
+        @Override
+        public boolean tryAdvance(Consumer<? super Entity> action) {
+            while (unit < end) {
+                Partition current = units.partitions[unit];
+                int found = current.nextInChunk(units.chunks[unit], pos);
+                if (found != -1) {
+                    if (current != partition) {
+                        partition = current;
+                        columns = current.columnsOf(componentIndex);
+                    }
+                    pos = found + 1;
+                    remaining--;
+                    action.accept(current.entityAt(units.chunks[unit], found, columns));
+                    return true;
+                }
+                unit++;
+                pos = 0;
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<Entity> trySplit() {
+            int from = pos == 0 ? unit : unit + 1;
+            if (end - from < 2) return null;
+            // Find the unit halving the population of the units not started yet
+            long half = units.populated[from] + (units.population(from, end) >> 1);
+            int lo = from + 1, hi = end - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (units.populated[mid] < half) lo = mid + 1;
+                else hi = mid;
+            }
+            EntitySpliterator split = new EntitySpliterator(units, lo, end, componentIndex);
+            remaining -= split.remaining;
+            end = lo;
+            return split;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return CHARACTERISTICS;
+        }
+    }
 }
@@ -1,25 +1,497 @@
 package alma;
 
+import alma.api.AlmaSystem;
+import alma.utils.AlmaException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
 /**
  * Systems scheduler. Stores all registered systems, handles their priorities and manages the threads that execute them.
+ * <p>
+ * Systems are grouped in named stages that run one after the other, with a sync point between them where the deferred
+ * structural changes of the pool are applied. Within a stage, systems run in registration order as far as their
+ * declared component access is concerned: a system waits for every previously registered system of the stage it
+ * conflicts with, and nothing else. The resulting dependency graph is built once when the systems change, so each run
+ * only resets the pending dependency counters and submits the systems as they become ready, letting the systems that
+ * don't share written component types run at the same time on the executor.
+ * <p>
+ * Systems declared I/O bound run on a separate executor, so a blocking system never holds one of the threads of the CPU
+ * bound systems. By default they run on virtual threads when the runtime supports them, and on a cached pool of
+ * platform threads otherwise.
+ * <p>
+ * Systems whose execution policy doesn't require them to run on a tick are resolved on the thread that released them,
+ * without waking any thread of the executors, and a stage with no due systems is not started at all.
+ * <p>
+ * The duration of the last run of each system is measured, and runs exceeding the budget of their system are reported
+ * to the {@link BudgetListener} of the scheduler, if one is set.
  *
  * @author Santiago Barreiro
  */
-public final class Scheduler {
+public final class Scheduler implements Runnable {
 
     // CONSTANTS
-
+    public static final String DEFAULT_STAGE = "update";   // Stage of the systems registered without a stage
 
     // ATTRIBUTES
-
+    private final Executor executor;                // Executor running the CPU bound systems
+    private final Executor ioExecutor;              // Executor running the I/O bound systems
+    private final AlmaPool pool;                    // Pool whose commands are flushed between stages, null if none
+    private final List<Stage> stages;               // Stages in running order
+    private final LongSupplier clock;               // Current time in nanoseconds, checked by the time based policies
+    private volatile BudgetListener budgetListener; // Receives the runs exceeding the budget of their system, null if none
+    private long ticks;                             // Amount of runs of the scheduler
 
     // CONSTRUCTORS
+    public Scheduler() {
+        this(ForkJoinPool.commonPool(), null);
+    }
+
+    public Scheduler(Executor executor) {
+        this(executor, null);
+    }
+
+    public Scheduler(AlmaPool pool) {
+        this(ForkJoinPool.commonPool(), pool);
+    }
 
+    public Scheduler(Executor executor, AlmaPool pool) {
+        this(executor, null, pool);
+    }
+
+    public Scheduler(Executor executor, Executor ioExecutor, AlmaPool pool) {
+        this(executor, ioExecutor, pool, System::nanoTime);
+    }
+
+    public Scheduler(Executor executor, Executor ioExecutor, AlmaPool pool, LongSupplier clock) {
+        this.executor = executor;
+        this.ioExecutor = ioExecutor;
+        this.pool = pool;
+        this.clock = clock;
+        this.stages = new ArrayList<>();
+    }
 
     // GETTERS & SETTERS
 
+    /**
+     * Gets every registered system, in stage and registration order
+     *
+     * @return The registered systems
+     */
+    public synchronized List<AlmaSystem> getSystems() {
+        List<AlmaSystem> systems = new ArrayList<>();
+        for (Stage stage : stages) systems.addAll(stage.systems);
+        return systems;
+    }
+
+    /**
+     * Gets the names of the stages, in running order
+     *
+     * @return Names of the stages
+     */
+    public synchronized List<String> getStages() {
+        List<String> names = new ArrayList<>();
+        for (Stage stage : stages) names.add(stage.name);
+        return names;
+    }
+
+    /**
+     * Sets the listener receiving the runs exceeding the budget of their system. It is called from the thread that ran
+     * the system. No listener is set by default, see {@link BudgetListener#STDERR} to print the overruns.
+     *
+     * @param budgetListener Listener for the budget overruns, null to ignore them
+     */
+    public void setBudgetListener(BudgetListener budgetListener) {
+        this.budgetListener = budgetListener;
+    }
+
+    /**
+     * Gets the duration of the last run of a system
+     *
+     * @param system Registered system
+     * @return Duration in nanoseconds, 0 if the system has not run yet or its last run was skipped
+     */
+    public synchronized long getLastRunNanos(AlmaSystem system) {
+        for (Stage stage : stages) {
+            if (stage.nodes == null) continue;
+            for (SystemNode node : stage.nodes) {
+                if (node.system == system) return node.lastRunNanos;
+            }
+        }
+        return 0;
+    }
 
     // METHODS
 
+    /**
+     * Adds a stage that runs after every existing stage
+     *
+     * @param name Name of the stage
+     */
+    public synchronized void addStage(String name) {
+        insertStage(name, stages.size());
+    }
+
+    /**
+     * Adds a stage that runs right before an existing stage
+     *
+     * @param name Name of the stage
+     * @param next Name of the stage running after the new one
+     */
+    public synchronized void addStageBefore(String name, String next) {
+        insertStage(name, stages.indexOf(stageOf(next)));
+    }
+
+    /**
+     * Adds a stage that runs right after an existing stage
+     *
+     * @param name     Name of the stage
+     * @param previous Name of the stage running before the new one
+     */
+    public synchronized void addStageAfter(String name, String previous) {
+        insertStage(name, stages.indexOf(stageOf(previous)) + 1);
+    }
+
+    private void insertStage(String name, int position) {
+        for (Stage stage : stages) {
+            if (stage.name.equals(name)) throw new AlmaException("Tried to add the stage " + name + " twice");
+        }
+        stages.add(position, new Stage(name));
+    }
+
+    private Stage stageOf(String name) {
+        for (Stage stage : stages) {
+            if (stage.name.equals(name)) return stage;
+        }
+        throw new AlmaException("Tried to access the non-existing stage " + name);
+    }
+
+    /**
+     * Registers a system into the default stage, which is added after the existing stages if it does not exist yet.
+     * It runs after every already registered system of the stage it conflicts with.
+     *
+     * @param system System to register
+     */
+    public synchronized void register(AlmaSystem system) {
+        boolean exists = false;
+        for (Stage stage : stages) exists |= stage.name.equals(DEFAULT_STAGE);
+        if (!exists) addStage(DEFAULT_STAGE);
+        register(DEFAULT_STAGE, system);
+    }
+
+    /**
+     * Registers a system into a stage. It runs after every system of the previous stages, and after every already
+     * registered system of its stage it conflicts with.
+     *
+     * @param stage  Name of the stage
+     * @param system System to register
+     */
+    public synchronized void register(String stage, AlmaSystem system) {
+        for (Stage existing : stages) {
+            if (existing.systems.contains(system)) throw new AlmaException("Tried to register a system twice");
+        }
+        Stage target = stageOf(stage);
+        target.systems.add(system);
+        target.nodes = null;
+    }
+
+    /**
+     * Unregisters a system
+     *
+     * @param system System to unregister
+     * @return True if the system was registered
+     */
+    public synchronized boolean unregister(AlmaSystem system) {
+        for (Stage stage : stages) {
+            if (stage.systems.remove(system)) {
+                stage.nodes = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs every registered system once, stage after stage, waiting until all of them have finished. The systems of a
+     * stage run in parallel where their component access allows it, and the commands recorded into the command buffers
+     * of the pool are flushed after each stage, so every stage sees the structural changes of the previous ones. If any
+     * system throws, the rest of the systems of its stage still run, the commands are flushed and the first failure is
+     * rethrown without running the next stages.
+     */
+    @Override
+    public synchronized void run() {
+        long tick = ticks++;
+        long now = clock.getAsLong();
+        for (Stage stage : stages) {
+            Throwable failure = runStage(stage, tick, now);
+            if (pool != null) pool.flushCommands();
+            if (failure instanceof RuntimeException runtime) throw runtime;
+            if (failure instanceof Error error) throw error;
+            if (failure != null) throw new AlmaException("System failed with " + failure, failure);
+        }
+    }
+
+    /**
+     * Runs every system of a stage, waiting until all of them have finished
+     *
+     * @param stage Stage to run
+     * @param tick  Number of the current run of the scheduler
+     * @param now   Time of the current run of the scheduler
+     * @return The first failure of the systems of the stage, null if none
+     */
+    private Throwable runStage(Stage stage, long tick, long now) {
+        if (stage.nodes == null) stage.build();
+        int due = 0;
+        for (SystemNode node : stage.nodes) {
+            node.due = node.isDue(tick, now);
+            if (node.due) due++;
+            else node.lastRunNanos = 0;
+        }
+        if (due == 0) return null;
+        Frame frame = new Frame(stage.nodes.length);
+        for (SystemNode node : stage.nodes) node.pending.set(node.dependencies);
+        for (SystemNode node : stage.roots) dispatch(node, frame);
+        try {
+            frame.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AlmaException("Interrupted while waiting for the systems to finish");
+        }
+        return frame.failure.get();
+    }
+
+    /**
+     * Starts a system whose dependencies have finished. Systems that are due are submitted to their executor, while the
+     * rest are resolved right away on the current thread.
+     */
+    private void dispatch(SystemNode node, Frame frame) {
+        if (node.due) submit(node, frame);
+        else execute(node, frame);
+    }
+
+    /**
+     * Submits a system to its executor. If the executor rejects it, e.g. after a shutdown, the rejection is recorded as
+     * the failure of the system and the system is resolved without running, so the stage still finishes and fails.
+     */
+    private void submit(SystemNode node, Frame frame) {
+        Executor target = !node.system.isIoBound() ? executor : ioExecutor != null ? ioExecutor : IoExecutor.DEFAULT;
+        try {
+            target.execute(() -> execute(node, frame));
+        } catch (RejectedExecutionException e) {
+            frame.failure.compareAndSet(null, e);
+            node.due = false;
+            execute(node, frame);
+        }
+    }
+
+    /**
+     * Runs a system if it is due, then releases the systems depending on it. The last ready successor runs on the same
+     * thread to avoid a handoff through the executor, as long as this thread is a worker of the same executor.
+     */
+    private void execute(SystemNode node, Frame frame) {
+        while (node != null) {
+            if (node.due) runTimed(node, frame);
+            SystemNode next = null;
+            for (SystemNode successor : node.successors) {
+                if (successor.pending.decrementAndGet() != 0) continue;
+                if (!node.due || !successor.due || successor.system.isIoBound() != node.system.isIoBound()) {
+                    dispatch(successor, frame);
+                } else {
+                    if (next != null) submit(next, frame);
+                    next = successor;
+                }
+            }
+            if (frame.remaining.decrementAndGet() == 0) frame.done.countDown();
+            node = next;
+        }
+    }
+
+    /**
+     * Runs a system measuring its duration
+     */
+    private void runTimed(SystemNode node, Frame frame) {
+        AlmaSystem system = node.system;
+        long start = System.nanoTime();
+        try {
+            system.run();
+        } catch (Throwable t) {
+            frame.failure.compareAndSet(null, t);
+        }
+        long elapsed = System.nanoTime() - start;
+        node.lastRunNanos = elapsed;
+        node.lastRunTick = node.tick;
+        node.lastRunTime = node.tickTime;
+        if (system.getBudgetNanos() > 0 && elapsed > system.getBudgetNanos()) {
+            node.skipNext = system.isSkipOnOverrun();
+            BudgetListener listener = budgetListener;
+            if (listener != null) listener.overrun(system, elapsed);
+        }
+    }
+
+    /**
+     * Holder of the default executor of the I/O bound systems, created on first use
+     */
+    private static final class IoExecutor {
+
+        // CONSTANTS
+        private static final Executor DEFAULT = create();
+
+        // METHODS
+
+        /**
+         * Creates an executor starting a virtual thread per system. Virtual threads are only available from Java 21, so
+         * they are looked up reflectively and replaced by a cached pool of daemon platform threads when missing.
+         */
+        private static Executor create() {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool(task -> {
+                    Thread thread = new Thread(task, "alma-io-system");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+    }
+
+    /**
+     * Receives the runs of systems exceeding their time budget
+     */
+    @FunctionalInterface
+    public interface BudgetListener {
+
+        /**
+         * Listener printing every overrun to the standard error stream
+         */
+        BudgetListener STDERR = (system, elapsedNanos) -> System.err.println("System "
+                + system.getClass().getSimpleName() + " took " + elapsedNanos + "ns, over its budget of "
+                + system.getBudgetNanos() + "ns");
+
+        /**
+         * Called after a run exceeding the budget of its system
+         *
+         * @param system       System that exceeded its budget
+         * @param elapsedNanos Duration of the run
+         */
+        void overrun(AlmaSystem system, long elapsedNanos);
+    }
+
+    /**
+     * Group of systems running between two sync points
+     */
+    private static final class Stage {
+
+        // ATTRIBUTES
+        private final String name;
+        private final List<AlmaSystem> systems;     // Systems of the stage, in registration order
+        private SystemNode[] nodes;                 // Dependency graph of the systems, null if it must be rebuilt
+        private SystemNode[] roots;                 // Nodes without dependencies
+
+        // CONSTRUCTORS
+        private Stage(String name) {
+            this.name = name;
+            this.systems = new ArrayList<>();
+        }
+
+        // METHODS
+
+        /**
+         * Builds the dependency graph of the systems. Each system depends on every previous system it conflicts with.
+         */
+        private void build() {
+            nodes = new SystemNode[systems.size()];
+            List<List<SystemNode>> successors = new ArrayList<>();
+            List<SystemNode> rootList = new ArrayList<>();
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new SystemNode(systems.get(i));
+                successors.add(new ArrayList<>());
+                for (int j = 0; j < i; j++) {
+                    if (!nodes[i].system.conflictsWith(nodes[j].system)) continue;
+                    successors.get(j).add(nodes[i]);
+                    nodes[i].dependencies++;
+                }
+                if (nodes[i].dependencies == 0) rootList.add(nodes[i]);
+            }
+            for (int i = 0; i < nodes.length; i++) nodes[i].successors = successors.get(i).toArray(new SystemNode[0]);
+            roots = rootList.toArray(new SystemNode[0]);
+        }
+    }
+
+    /**
+     * Node of the dependency graph of the systems
+     */
+    private static final class SystemNode {
+
+        // ATTRIBUTES
+        private final AlmaSystem system;
+        private int dependencies;                   // Amount of systems that must finish before this one
+        private final AtomicInteger pending;        // Dependencies not finished yet during the current run
+        private SystemNode[] successors;            // Systems depending on this one
+        private long lastRunNanos;                  // Duration of the last run of the system
+        private boolean skipNext;                   // True if the next run of the system is skipped
+        private boolean due;                        // True if the system runs during the current run of its stage
+        private boolean ran;                        // True if the system has run at least once
+        private long tick;                          // Number of the current run of the scheduler
+        private long tickTime;                      // Time of the current run of the scheduler
+        private long lastRunTick;                   // Number of the run of the scheduler of the last run of the system
+        private long lastRunTime;                   // Time of the run of the scheduler of the last run of the system
+
+        // CONSTRUCTORS
+        private SystemNode(AlmaSystem system) {
+            this.system = system;
+            this.pending = new AtomicInteger();
+        }
+
+        // METHODS
+
+        /**
+         * Checks the execution policy of the system for a run of the scheduler. A system skipped because of a budget
+         * overrun is only skipped once.
+         *
+         * @param tick Number of the run of the scheduler
+         * @param now  Time of the run of the scheduler
+         * @return True if the system must run
+         */
+        private boolean isDue(long tick, long now) {
+            this.tick = tick;
+            this.tickTime = now;
+            if (!system.isEnabled()) return false;
+            if (skipNext) {
+                skipNext = false;
+                return false;
+            }
+            if (!ran) {
+                ran = true;
+                return true;
+            }
+            return tick - lastRunTick >= system.getTickInterval() && now - lastRunTime >= system.getPeriodNanos();
+        }
+    }
+
+    /**
+     * State of a single run of the systems
+     */
+    private static final class Frame {
+
+        // ATTRIBUTES
+        private final AtomicInteger remaining;      // Systems not finished yet
+        private final CountDownLatch done;          // Released once every system has finished
+        private final AtomicReference<Throwable> failure;
 
+        // CONSTRUCTORS
+        private Frame(int systems) {
+            this.remaining = new AtomicInteger(systems);
+            this.done = new CountDownLatch(1);
+            this.failure = new AtomicReference<>();
+        }
+    }
 }
@@ -0,0 +1,169 @@
+package alma;
+
+import alma.utils.AlmaException;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Fixed timestep loop for headless servers. Time is accumulated from a clock and consumed in steps of a fixed duration,
+ * running one tick of the scheduler per step. When the ticks fall behind, at most {@code maxCatchUp} ticks are run per
+ * advance and the rest of the pending time is dropped, so a long stall never turns into a burst of ticks that keeps the
+ * loop late.
+ * <p>
+ * Each tick is timed, and ticks taking longer than the step are reported to the {@link Listener} as overruns, together
+ * with the dropped ticks. The clock can be injected, so the loop can be driven by a simulated time.
+ *
+ * @author Santiago Barreiro
+ */
+public final class TickDriver implements Runnable {
+
+    // ATTRIBUTES
+    private final Runnable tick;                    // Work run on every tick, usually a scheduler
+    private final long stepNanos;                   // Duration of each tick
+    private final int maxCatchUp;                   // Maximum amount of ticks run by a single advance
+    private final LongSupplier clock;               // Current time in nanoseconds
+    private final Listener listener;                // Receives the overruns and dropped ticks, null if not needed
+    private long lastTime;                          // Time of the last advance
+    private long accumulated;                       // Time not consumed by ticks yet
+    private long ticks;                             // Amount of ticks run
+    private long overruns;                          // Amount of ticks taking longer than the step
+    private long droppedTicks;                      // Amount of ticks dropped to catch up
+    private long lastTickNanos;                     // Duration of the last tick
+    private boolean started;
+    private volatile boolean running;
+
+    // CONSTRUCTORS
+    public TickDriver(Runnable tick, long stepNanos, int maxCatchUp) {
+        this(tick, stepNanos, maxCatchUp, System::nanoTime, null);
+    }
+
+    public TickDriver(Runnable tick, long stepNanos, int maxCatchUp, LongSupplier clock, Listener listener) {
+        if (stepNanos <= 0) throw new AlmaException("The tick step must be positive");
+        if (maxCatchUp < 1) throw new AlmaException("At least one tick must be run per advance");
+        this.tick = tick;
+        this.stepNanos = stepNanos;
+        this.maxCatchUp = maxCatchUp;
+        this.clock = clock;
+        this.listener = listener;
+    }
+
+    // GETTERS & SETTERS
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * Gets the fraction of a step accumulated but not consumed by ticks yet, to interpolate the state between the last
+     * two ticks when rendering.
+     *
+     * @return Fraction of a step between 0 and 1
+     */
+    public double getInterpolation() {
+        return (double) accumulated / stepNanos;
+    }
+
+    // METHODS
+
+    /**
+     * Accumulates the time passed since the previous advance and runs the ticks it covers, up to the catch up limit.
+     * The first advance only starts the clock.
+     *
+     * @return Amount of ticks run
+     */
+    public int advance() {
+        long now = clock.getAsLong();
+        if (!started) {
+            started = true;
+            lastTime = now;
+            return 0;
+        }
+        // Time spent running the ticks counts towards the next advance
+        accumulated += now - lastTime;
+        lastTime = now;
+        int run = 0;
+        while (accumulated >= stepNanos && run < maxCatchUp) {
+            accumulated -= stepNanos;
+            runTick();
+            run++;
+        }
+        if (accumulated >= stepNanos) {
+            long dropped = accumulated / stepNanos;
+            accumulated -= dropped * stepNanos;
+            droppedTicks += dropped;
+            if (listener != null) listener.ticksDropped(dropped);
+        }
+        return run;
+    }
+
+    private void runTick() {
+        long start = clock.getAsLong();
+        tick.run();
+        lastTickNanos = clock.getAsLong() - start;
+        ticks++;
+        if (lastTickNanos > stepNanos) {
+            overruns++;
+            if (listener != null) listener.tickOverrun(ticks, lastTickNanos);
+        }
+    }
+
+    /**
+     * Runs the loop on the current thread until {@link #stop()} is called, parking the thread between ticks. Meant for
+     * the real time clock.
+     */
+    @Override
+    public void run() {
+        running = true;
+        while (running) {
+            advance();
+            long wait = stepNanos - accumulated - (clock.getAsLong() - lastTime);
+            if (wait > 0) LockSupport.parkNanos(wait);
+        }
+    }
+
+    /**
+     * Stops the loop after the current advance
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Receives the timing events of the loop
+     */
+    public interface Listener {
+
+        /**
+         * Called after a tick that took longer than the step
+         *
+         * @param tick         Number of the tick, starting at 1
+         * @param elapsedNanos Duration of the tick
+         */
+        default void tickOverrun(long tick, long elapsedNanos) {
+        }
+
+        /**
+         * Called when pending ticks are dropped because the catch up limit was reached
+         *
+         * @param ticks Amount of dropped ticks
+         */
+        default void ticksDropped(long ticks) {
+        }
+    }
+}
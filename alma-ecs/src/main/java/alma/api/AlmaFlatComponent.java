@@ -0,0 +1,146 @@
+package alma.api;
+
+import alma.utils.ComponentFactory;
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Base class for components with a fixed primitive layout. The data of a flat component is not stored in object fields
+ * but in a memory segment: a freshly created component owns a small heap segment, while the components handed out by
+ * partitions are views bound to the off-heap memory of a partition chunk.
+ * <p>
+ * Flat components must declare a no-args constructor, so partitions can create views for them.
+ *
+ * @author Santiago Barreiro
+ */
+public abstract class AlmaFlatComponent extends AlmaComponent {
+
+    // CONSTANTS
+    private static final ClassValue<ComponentLayout> LAYOUTS = new ClassValue<>() {
+        @Override
+        protected ComponentLayout computeValue(Class<?> type) {
+            if (!AlmaFlatComponent.class.isAssignableFrom(type)) return null;
+            return ((AlmaFlatComponent) newView(type)).layout();
+        }
+    };
+
+    // ATTRIBUTES
+    protected MemorySegment segment;                // Segment currently holding the data of the component
+    protected long offset;                          // Offset of the component data within the segment
+
+    // CONSTRUCTORS
+    protected AlmaFlatComponent(ComponentLayout layout) {
+        this.segment = MemorySegment.ofArray(new byte[(int) layout.byteSize()]);
+        this.offset = 0;
+    }
+
+    // GETTERS & SETTERS
+    public abstract ComponentLayout layout();
+
+    /**
+     * Binds this component to the data stored in the specified position of a segment. Used by partitions to reuse a
+     * single view while walking a column of flat components.
+     *
+     * @param segment Segment holding the component data
+     * @param offset  Byte offset of the component within the segment
+     */
+    public final void bind(MemorySegment segment, long offset) {
+        this.segment = segment;
+        this.offset = offset;
+    }
+
+    // METHODS
+
+    /**
+     * Gets the layout of a component type.
+     *
+     * @param type Component class
+     * @return The layout of the type, or null if the type is not a flat component
+     */
+    public static ComponentLayout layoutOf(Class<?> type) {
+        return LAYOUTS.get(type);
+    }
+
+    /**
+     * Creates a new detached instance of a flat component type, to be used as a view.
+     *
+     * @param type Flat component class
+     * @return New instance of the type
+     */
+    public static <T> T newView(Class<T> type) {
+        return ComponentFactory.newInstance(type);
+    }
+
+    /**
+     * Copies the data of this component into the specified position of a segment.
+     *
+     * @param target       Segment to copy the data into
+     * @param targetOffset Byte offset within the target segment
+     */
+    public final void storeInto(MemorySegment target, long targetOffset) {
+        long size = layout().byteSize();
+        target.asSlice(targetOffset, size).copyFrom(segment.asSlice(offset, size));
+    }
+
+    @Override
+    public void copy(AlmaComponent target) {
+        if (target instanceof AlmaFlatComponent flat) flat.storeInto(segment, offset);
+    }
+
+    // Field accessors relative to the current binding of the component
+    protected final byte getByte(long field) {
+        return MemoryAccess.getByteAtOffset(segment, offset + field);
+    }
+
+    protected final void setByte(long field, byte value) {
+        MemoryAccess.setByteAtOffset(segment, offset + field, value);
+    }
+
+    protected final short getShort(long field) {
+        return MemoryAccess.getShortAtOffset(segment, offset + field);
+    }
+
+    protected final void setShort(long field, short value) {
+        MemoryAccess.setShortAtOffset(segment, offset + field, value);
+    }
+
+    protected final char getChar(long field) {
+        return MemoryAccess.getCharAtOffset(segment, offset + field);
+    }
+
+    protected final void setChar(long field, char value) {
+        MemoryAccess.setCharAtOffset(segment, offset + field, value);
+    }
+
+    protected final int getInt(long field) {
+        return MemoryAccess.getIntAtOffset(segment, offset + field);
+    }
+
+    protected final void setInt(long field, int value) {
+        MemoryAccess.setIntAtOffset(segment, offset + field, value);
+    }
+
+    protected final long getLong(long field) {
+        return MemoryAccess.getLongAtOffset(segment, offset + field);
+    }
+
+    protected final void setLong(long field, long value) {
+        MemoryAccess.setLongAtOffset(segment, offset + field, value);
+    }
+
+    protected final float getFloat(long field) {
+        return MemoryAccess.getFloatAtOffset(segment, offset + field);
+    }
+
+    protected final void setFloat(long field, float value) {
+        MemoryAccess.setFloatAtOffset(segment, offset + field, value);
+    }
+
+    protected final double getDouble(long field) {
+        return MemoryAccess.getDoubleAtOffset(segment, offset + field);
+    }
+
+    protected final void setDouble(long field, double value) {
+        MemoryAccess.setDoubleAtOffset(segment, offset + field, value);
+    }
+}
@@ -1,24 +1,170 @@
 package alma.api;
 
+import alma.utils.AlmaException;
+
 /**
- * AlmaSystem
+ * AlmaSystem. Systems declare the component types they read and write, so the scheduler can run the systems that don't
+ * touch the same data at the same time. A system writing a type conflicts with every system reading or writing it,
+ * while systems only reading a type can run together. Systems that access data outside of the declared types, or change
+ * the structure of the pool without a command buffer, must be declared exclusive.
+ * <p>
+ * Systems can also declare a time budget for each run. The scheduler reports the runs exceeding the budget and, if the
+ * system asks for it, skips the next run of the system so a slow system can't keep the whole tick late.
+ * <p>
+ * Systems that block, waiting on I/O or other processes, must be declared I/O bound so the scheduler runs them apart
+ * from the threads running the CPU bound systems.
+ * <p>
+ * The execution policy of a system limits how often it runs: every N ticks of the scheduler, at most once per period of
+ * time, or not at all while disabled. Systems that are not due are skipped by the scheduler without being submitted to
+ * any thread.
  *
  * @author Santiago Barreiro
  */
-public abstract class AlmaSystem implements Runnable{
+public abstract class AlmaSystem implements Runnable {
+
+    // CONSTANTS
+    private static final Class<?>[] NONE = new Class<?>[0];
 
     // ATTRIBUTES
-    private Class<?>[] targetComposition;
+    private Class<?>[] reads = NONE;                // Component types read by the system
+    private Class<?>[] writes = NONE;               // Component types written by the system
+    private boolean exclusive;                      // True if the system can't run together with any other system
+    private long budgetNanos;                       // Time budget of each run in nanoseconds, 0 if there is no budget
+    private boolean skipOnOverrun;                  // True if the run after exceeding the budget is skipped
+    private boolean ioBound;                        // True if the system blocks waiting on I/O
+    private int tickInterval = 1;                   // Amount of scheduler ticks between runs
+    private long periodNanos;                       // Minimum time between runs in nanoseconds, 0 if there is none
+    private volatile boolean enabled = true;        // False if the system is skipped
 
+    // GETTERS & SETTERS
+    public Class<?>[] getReads() {
+        return reads;
+    }
 
-    // CONSTRUCTORS
+    public Class<?>[] getWrites() {
+        return writes;
+    }
 
+    public boolean isExclusive() {
+        return exclusive;
+    }
 
-    // GETTERS & SETTERS
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    public boolean isSkipOnOverrun() {
+        return skipOnOverrun;
+    }
 
+    public boolean isIoBound() {
+        return ioBound;
+    }
+
+    public int getTickInterval() {
+        return tickInterval;
+    }
+
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the system. Disabled systems keep their place in the scheduler but are skipped until enabled
+     * again, so toggling them is cheap and can be done from any thread.
+     *
+     * @param enabled False to skip the system
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
 
     // METHODS
-    public void setTargetComposition() {
 
+    /**
+     * Declares the component types read by the system. Meant to be called from the constructor of the system.
+     *
+     * @param types Component types read by the system
+     */
+    protected final void reads(Class<?>... types) {
+        this.reads = types.clone();
+    }
+
+    /**
+     * Declares the component types written by the system. Meant to be called from the constructor of the system.
+     *
+     * @param types Component types written by the system
+     */
+    protected final void writes(Class<?>... types) {
+        this.writes = types.clone();
+    }
+
+    /**
+     * Declares that the system can't run together with any other system
+     */
+    protected final void exclusive() {
+        this.exclusive = true;
+    }
+
+    /**
+     * Declares that the system blocks waiting on I/O, so it must not run on the threads of the CPU bound systems
+     */
+    protected final void ioBound() {
+        this.ioBound = true;
+    }
+
+    /**
+     * Declares that the system only runs once every few ticks of the scheduler
+     *
+     * @param ticks Amount of ticks between runs, 1 to run on every tick
+     */
+    protected final void everyTicks(int ticks) {
+        if (ticks < 1) throw new AlmaException("Systems must run at least once every " + ticks + " ticks");
+        this.tickInterval = ticks;
+    }
+
+    /**
+     * Declares that the system runs at most once per period of time, skipping the ticks that come earlier
+     *
+     * @param millis Minimum time between runs in milliseconds, 0 to remove the limit
+     */
+    protected final void everyMillis(long millis) {
+        this.periodNanos = millis * 1_000_000;
+    }
+
+    /**
+     * Declares the time budget of each run of the system. Meant to be called from the constructor of the system.
+     *
+     * @param nanos         Time budget in nanoseconds, 0 to remove the budget
+     * @param skipOnOverrun True to skip the next run of the system after a run exceeding the budget
+     */
+    protected final void budget(long nanos, boolean skipOnOverrun) {
+        this.budgetNanos = nanos;
+        this.skipOnOverrun = skipOnOverrun;
+    }
+
+    /**
+     * Checks if this system and another one can't run at the same time, because one of them writes a component type
+     * the other one reads or writes, or because any of them is exclusive.
+     *
+     * @param other Other system
+     * @return True if the systems must run one after the other
+     */
+    public boolean conflictsWith(AlmaSystem other) {
+        return exclusive || other.exclusive || overlap(writes, other.reads) || overlap(writes, other.writes)
+                || overlap(reads, other.writes);
+    }
+
+    private static boolean overlap(Class<?>[] a, Class<?>[] b) {
+        for (Class<?> type : a) {
+            for (Class<?> other : b) {
+                if (type == other) return true;
+            }
+        }
+        return false;
     }
 }
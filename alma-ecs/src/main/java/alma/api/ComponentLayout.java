@@ -0,0 +1,88 @@
+package alma.api;
+
+import alma.utils.AlmaException;
+import jdk.incubator.foreign.GroupLayout;
+import jdk.incubator.foreign.MemoryLayout;
+import jdk.incubator.foreign.ValueLayout;
+
+/**
+ * Describes the fixed primitive layout of a flat component type. Every field is a named primitive value stored at a
+ * fixed byte offset, so a whole column of components of the same type can be kept in one contiguous memory segment.
+ *
+ * @author Santiago Barreiro
+ */
+public final class ComponentLayout {
+
+    // ATTRIBUTES
+    private final GroupLayout layout;               // Struct layout backing this component layout
+    private final String[] names;                   // Names of the fields in declaration order
+    private final long[] offsets;                   // Byte offset of each field within the struct
+
+    // CONSTRUCTORS
+    private ComponentLayout(GroupLayout layout) {
+        this.layout = layout;
+        this.names = new String[layout.memberLayouts().size()];
+        this.offsets = new long[names.length];
+        long offset = 0;
+        for (int i = 0; i < names.length; i++) {
+            MemoryLayout field = layout.memberLayouts().get(i);
+            if (!(field instanceof ValueLayout))
+                throw new AlmaException("Flat component fields must be primitive values");
+            names[i] = field.name().orElseThrow(() -> new AlmaException("Flat component fields must be named"));
+            offsets[i] = offset;
+            offset += field.byteSize();
+        }
+    }
+
+    /**
+     * Creates a component layout from a list of named primitive value layouts. Fields are packed in the same order
+     * they are passed.
+     *
+     * @param fields Named value layouts, e.g. MemoryLayouts.JAVA_FLOAT.withName("x")
+     * @return The layout describing a component with the passed fields
+     */
+    public static ComponentLayout of(MemoryLayout... fields) {
+        return new ComponentLayout(MemoryLayout.structLayout(fields));
+    }
+
+    // GETTERS
+    public GroupLayout memoryLayout() {
+        return layout;
+    }
+
+    public long byteSize() {
+        return layout.byteSize();
+    }
+
+    public int fieldCount() {
+        return names.length;
+    }
+
+    public String fieldName(int field) {
+        return names[field];
+    }
+
+    public long offset(int field) {
+        return offsets[field];
+    }
+
+    // METHODS
+
+    /**
+     * Gets the byte offset of the field with the specified name.
+     *
+     * @param name Name of the field
+     * @return Byte offset of the field within the component
+     */
+    public long offset(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return offsets[i];
+        }
+        throw new AlmaException("Field " + name + " is not part of the component layout");
+    }
+
+    @Override
+    public String toString() {
+        return "ComponentLayout => { " + layout + " }";
+    }
+}
@@ -0,0 +1,52 @@
+package alma.api;
+
+/**
+ * Functional interfaces used to walk the entities of a query with their components already typed. Each consumer
+ * receives the ID of the entity followed by the requested components, in the requested order.
+ *
+ * @author Santiago Barreiro
+ */
+public final class EntityConsumers {
+
+    // CONSTRUCTORS
+    private EntityConsumers() {
+    }
+
+    @FunctionalInterface
+    public interface With1<A> {
+        void accept(int entity, A a);
+    }
+
+    @FunctionalInterface
+    public interface With2<A, B> {
+        void accept(int entity, A a, B b);
+    }
+
+    @FunctionalInterface
+    public interface With3<A, B, C> {
+        void accept(int entity, A a, B b, C c);
+    }
+
+    @FunctionalInterface
+    public interface With4<A, B, C, D> {
+        void accept(int entity, A a, B b, C c, D d);
+    }
+
+    @FunctionalInterface
+    public interface With5<A, B, C, D, E> {
+        void accept(int entity, A a, B b, C c, D d, E e);
+    }
+
+    @FunctionalInterface
+    public interface With6<A, B, C, D, E, F> {
+        void accept(int entity, A a, B b, C c, D d, E e, F f);
+    }
+
+    /**
+     * Receives the previous and the new ID of every entity moved into another partition by a bulk operation.
+     */
+    @FunctionalInterface
+    public interface Moved {
+        void accept(int previous, int entity);
+    }
+}
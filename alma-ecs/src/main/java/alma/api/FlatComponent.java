@@ -0,0 +1,18 @@
+package alma.api;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a record of primitive values as the declaration of a flat component. The alma-ecs-processor annotation
+ * processor generates, in the same package, a {@link AlmaFlatComponent} subclass named after the record plus the
+ * "Component" suffix, with its layout, copy implementation and field accessors.
+ *
+ * @author Santiago Barreiro
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface FlatComponent {
+}
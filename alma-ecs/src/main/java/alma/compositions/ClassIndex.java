@@ -1,6 +1,7 @@
 package alma.compositions;
 
 import alma.api.AlmaComponent;
+import alma.utils.BitIndex;
 import alma.utils.CompositionHash;
 
 import java.util.Arrays;
@@ -14,6 +15,7 @@ public class ClassIndex {
 
     // CONSTANTS
     public static final int MAX_COMPONENTS = 1 << 8;
+    public static final int SIGNATURE_WORDS = MAX_COMPONENTS >> 5;     // Int words of each composition signature
 
     // ATTRIBUTES
     // Starting value for the index
@@ -53,6 +55,19 @@ public class ClassIndex {
         return index;
     }
 
+    /**
+     * Creates the signature of a set of component types, a bit index with the index of each type set. Every signature
+     * has {@link #SIGNATURE_WORDS} words so they can be compared word by word.
+     *
+     * @param types Array of class types
+     * @return The signature of the types
+     */
+    public BitIndex getSignature(Class<?>[] types) {
+        int[] indexes = new int[types.length];
+        for (int i = 0; i < types.length; i++) indexes[i] = classIndex.get(types[i]);
+        return new BitIndex(indexes, MAX_COMPONENTS - 1);
+    }
+
     /**
      * Gets the classes from a list of component instances.
      *
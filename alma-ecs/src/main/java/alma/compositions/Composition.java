@@ -1,6 +1,7 @@
 package alma.compositions;
 
 import alma.Partition;
+import alma.utils.BitIndex;
 
 /**
  * A composition is a structure describing the composition of one type of entity. It holds a map of the component classes
@@ -13,12 +14,20 @@ public final class Composition {
     // ATTRIBUTES
     private final Class<?>[] componentTypes;
     private final int size;
+    private final BitIndex signature;               // Class indexes of the component types
     private Partition partition = null;
+    private CompositionEdge[] addEdges = null;      // Edges adding each component type, indexed by class index
+    private CompositionEdge[] removeEdges = null;   // Edges removing each component type, indexed by class index
 
     // CONSTRUCTORS
     public Composition(Class<?>[] componentTypes) {
+        this(componentTypes, null);
+    }
+
+    public Composition(Class<?>[] componentTypes, BitIndex signature) {
         this.componentTypes = componentTypes;
         this.size = componentTypes.length;
+        this.signature = signature;
     }
 
     // GETTERS & SETTERS
@@ -30,6 +39,10 @@ public final class Composition {
         return size;
     }
 
+    public BitIndex getSignature() {
+        return signature;
+    }
+
     public Partition getPartition() {
         return partition;
     }
@@ -38,6 +51,24 @@ public final class Composition {
         this.partition = partition;
     }
 
+    public CompositionEdge getAddEdge(int typeIndex) {
+        return addEdges == null ? null : addEdges[typeIndex];
+    }
+
+    public void setAddEdge(int typeIndex, CompositionEdge edge) {
+        if (addEdges == null) addEdges = new CompositionEdge[ClassIndex.MAX_COMPONENTS];
+        addEdges[typeIndex] = edge;
+    }
+
+    public CompositionEdge getRemoveEdge(int typeIndex) {
+        return removeEdges == null ? null : removeEdges[typeIndex];
+    }
+
+    public void setRemoveEdge(int typeIndex, CompositionEdge edge) {
+        if (removeEdges == null) removeEdges = new CompositionEdge[ClassIndex.MAX_COMPONENTS];
+        removeEdges[typeIndex] = edge;
+    }
+
     // METHODS
 
     @Override
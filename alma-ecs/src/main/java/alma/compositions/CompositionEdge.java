@@ -0,0 +1,30 @@
+package alma.compositions;
+
+/**
+ * Transition between two compositions caused by adding or removing a single component type. It holds the target
+ * composition and how the columns of the target partition are filled from the columns of the source partition, so
+ * entities can be moved between both partitions without aligning their components again.
+ *
+ * @author Santiago Barreiro
+ */
+public final class CompositionEdge {
+
+    // ATTRIBUTES
+    private final Composition target;               // Composition reached through the edge
+    private final int[] sourceColumns;              // Source column of each target column, -1 for the added type
+
+    // CONSTRUCTORS
+    public CompositionEdge(Composition target, int[] sourceColumns) {
+        this.target = target;
+        this.sourceColumns = sourceColumns;
+    }
+
+    // GETTERS & SETTERS
+    public Composition getTarget() {
+        return target;
+    }
+
+    public int[] getSourceColumns() {
+        return sourceColumns;
+    }
+}
@@ -1,10 +1,12 @@
 package alma.compositions;
 
 import alma.api.AlmaComponent;
+import alma.utils.AlmaException;
+import alma.utils.BitIndex;
 import alma.utils.CompositionHash;
 
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -15,13 +17,24 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public final class CompositionManager {
 
+    // CONSTANTS
+    public static final int DEFAULT_MAX_CACHED_QUERIES = 1024;  // Default amount of query results kept by the cache
+
     // ATTRIBUTES
     // Used to map each class to an Integer value
     private final ClassIndex classIndex;
     // Used to map each composition hash to its composition
     private final Map<CompositionHash, Composition> compositions = new ConcurrentHashMap<>();
-    // Composition tree
-    private final Map<Integer, Map<CompositionHash, Composition>> compositionTree = new ConcurrentHashMap<>();
+    // Dense arrays of the registered compositions, their hashes and their signatures, SIGNATURE_WORDS words each
+    private Composition[] compositionArray = new Composition[64];
+    private CompositionHash[] hashArray = new CompositionHash[64];
+    private int[] signatures = new int[64 * ClassIndex.SIGNATURE_WORDS];
+    // Amount of registered compositions, written after the dense arrays so readers always see them filled
+    private volatile int compositionCount = 0;
+    // Results of the queries by signature, extended as new compositions are registered. Null if caching is disabled
+    private final Map<QuerySignature, Map<CompositionHash, Composition>> queryCache;
+    // Amount of query results kept by the cache, queries beyond it are computed on every call
+    private final int maxCachedQueries;
 
     // CONSTRUCTORS
     public CompositionManager() {
@@ -29,7 +42,30 @@ public final class CompositionManager {
     }
 
     public CompositionManager(ClassIndex index) {
+        this(index, true);
+    }
+
+    /**
+     * Creates a composition manager
+     *
+     * @param index        Class index to map the component types with
+     * @param cacheQueries True to cache the results of the composition queries
+     */
+    public CompositionManager(ClassIndex index, boolean cacheQueries) {
+        this(index, cacheQueries ? DEFAULT_MAX_CACHED_QUERIES : 0);
+    }
+
+    /**
+     * Creates a composition manager caching a limited amount of query results. Once the cache is full, new queries are
+     * computed on every call instead of evicting the cached ones, so the results shared by the systems stay valid.
+     *
+     * @param index            Class index to map the component types with
+     * @param maxCachedQueries Amount of query results kept by the cache, 0 to disable caching
+     */
+    public CompositionManager(ClassIndex index, int maxCachedQueries) {
         this.classIndex = index;
+        this.maxCachedQueries = maxCachedQueries;
+        this.queryCache = maxCachedQueries > 0 ? new ConcurrentHashMap<>() : null;
     }
 
     // GETTERS
@@ -40,9 +76,8 @@ public final class CompositionManager {
     // METHODS
 
     /**
-     * Gets the composition that matches the component types. Lazily creates a new composition if it doesn't exist. If
-     * the composition didn't exist, then the classCompositions map will be updated and the new composition will be
-     * added to the list of compositions with that class.
+     * Gets the composition that matches the component types. Lazily creates a new composition if it doesn't exist,
+     * registering its signature so it can be matched by queries.
      *
      * @param components List of component classes to match the composition
      * @return The matched composition
@@ -50,28 +85,46 @@ public final class CompositionManager {
     public Composition getComposition(Class<?>[] components) {
         CompositionHash cHash = classIndex.getCompositionHash(components);
         Composition c = compositions.get(cHash);
-        if (c == null) {
-            // Lazily create the composition corresponding to the components
-            c = new Composition(components);
-            compositions.put(cHash, c);
-            for (Class<?> type : components) {
-                // Add composition to list of compositions that contain this class
-                Map<CompositionHash, Composition> cList = compositionTree.get(classIndex.get(type));
-                if (cList == null) {
-                    // Lazily create the list if did not exist previously
-                    cList = new ConcurrentHashMap<>();
-                    compositionTree.put(classIndex.get(type), cList);
-                }
-                cList.put(cHash, c);
+        return c == null ? registerComposition(cHash, components) : c;
+    }
+
+    /**
+     * Creates a new composition, adding it to the dense composition arrays and to the cached query results it matches.
+     * Synchronized with the creation of cached queries so no composition is missed by them.
+     *
+     * @param cHash      Hash of the composition
+     * @param components Component types of the composition
+     * @return The registered composition
+     */
+    private synchronized Composition registerComposition(CompositionHash cHash, Class<?>[] components) {
+        Composition c = compositions.get(cHash);
+        if (c != null) return c;
+        // Lazily create the composition corresponding to the components
+        BitIndex signature = classIndex.getSignature(components);
+        c = new Composition(components, signature);
+        int index = compositionCount;
+        if (index == compositionArray.length) {
+            compositionArray = Arrays.copyOf(compositionArray, index << 1);
+            hashArray = Arrays.copyOf(hashArray, index << 1);
+            signatures = Arrays.copyOf(signatures, (index << 1) * ClassIndex.SIGNATURE_WORDS);
+        }
+        compositionArray[index] = c;
+        hashArray[index] = cHash;
+        signature.copyTo(signatures, index * ClassIndex.SIGNATURE_WORDS);
+        compositionCount = index + 1;
+        compositions.put(cHash, c);
+        if (queryCache != null) {
+            for (Map.Entry<QuerySignature, Map<CompositionHash, Composition>> query : queryCache.entrySet()) {
+                if (query.getKey().matches(signatures, index * ClassIndex.SIGNATURE_WORDS))
+                    query.getValue().put(cHash, c);
             }
         }
         return c;
     }
 
     /**
-     * Gets the composition that matches the component instances. Lazily creates a new composition if it doesn't exist. If
-     * the composition didn't exist, then the classCompositions map will be updated and the new composition will be
-     * added to the list of compositions with that class.
+     * Gets the composition that matches the component instances. Lazily creates a new composition if it doesn't exist,
+     * registering its signature so it can be matched by queries.
      * <p>
      * Components array is ordered before creating the Composition. Compositions should not be created randomly at runtime
      * so the overall performance impact of the Bubble sort should not be relevant.
@@ -83,12 +136,75 @@ public final class CompositionManager {
         return getComposition(classIndex.getComponentClasses(components));
     }
 
+    /**
+     * Gets the edge from a composition to the composition with one more component type. The edge is computed the first
+     * time and cached in the source composition, so later transitions only cost an array lookup.
+     *
+     * @param source Composition of the entity
+     * @param type   Component type to add
+     * @return The edge to the composition including the type
+     */
+    public CompositionEdge getAddEdge(Composition source, Class<?> type) {
+        int typeIndex = classIndex.get(type);
+        CompositionEdge edge = source.getAddEdge(typeIndex);
+        if (edge != null) return edge;
+        if (source.getSignature().get(typeIndex))
+            throw new AlmaException("Tried to add the component type " + type.getSimpleName() + " to a composition that already has it");
+        Class<?>[] types = Arrays.copyOf(source.getComponentTypes(), source.getSize() + 1);
+        types[source.getSize()] = type;
+        edge = createEdge(source, getComposition(types));
+        source.setAddEdge(typeIndex, edge);
+        return edge;
+    }
+
+    /**
+     * Gets the edge from a composition to the composition with one less component type. The edge is computed the first
+     * time and cached in the source composition, so later transitions only cost an array lookup.
+     *
+     * @param source Composition of the entity
+     * @param type   Component type to remove
+     * @return The edge to the composition without the type
+     */
+    public CompositionEdge getRemoveEdge(Composition source, Class<?> type) {
+        int typeIndex = classIndex.get(type);
+        CompositionEdge edge = source.getRemoveEdge(typeIndex);
+        if (edge != null) return edge;
+        if (!source.getSignature().get(typeIndex))
+            throw new AlmaException("Tried to remove the component type " + type.getSimpleName() + " from a composition without it");
+        Class<?>[] types = new Class<?>[source.getSize() - 1];
+        int i = 0;
+        for (Class<?> t : source.getComponentTypes()) if (t != type) types[i++] = t;
+        edge = createEdge(source, getComposition(types));
+        source.setRemoveEdge(typeIndex, edge);
+        return edge;
+    }
+
+    /**
+     * Creates the edge between two compositions, mapping every column of the target to the column of the source
+     * holding the same component type. Columns follow the order of the component types of each composition.
+     *
+     * @param source Source composition
+     * @param target Target composition
+     * @return The edge between the compositions
+     */
+    private CompositionEdge createEdge(Composition source, Composition target) {
+        Class<?>[] sourceTypes = source.getComponentTypes();
+        Class<?>[] targetTypes = target.getComponentTypes();
+        int[] sourceColumns = new int[targetTypes.length];
+        for (int i = 0; i < targetTypes.length; i++) {
+            sourceColumns[i] = -1;
+            for (int j = 0; j < sourceTypes.length; j++) {
+                if (sourceTypes[j] == targetTypes[i]) sourceColumns[i] = j;
+            }
+        }
+        return new CompositionEdge(target, sourceColumns);
+    }
+
     /*
-     * Composition query methods. At this moment, no cache is used. A cache could be used as it is common that systems
-     * may use more complex queries which results, if not cached, will have to be recalculated every time. This could
-     * potentially add unnecessary overhead, or it may be the case that the cache is either overkill, not improve
-     * or even worsen performance. These methods should be thoroughly benchmarked with and without a results cache as to
-     * understand if it is needed or not
+     * Composition query methods. Systems usually run the same queries every frame, so unless disabled the results are
+     * cached by query signature. A cached result is computed once and then extended whenever a new composition matching
+     * it is registered, so repeated queries only pay the lookup. See CompositionManagerBenchmark for the comparison
+     * with and without the cache. The cache is bounded and can be cleared, so ad-hoc queries don't grow it forever.
      */
 
     /**
@@ -103,23 +219,82 @@ public final class CompositionManager {
 
     /**
      * Gets the compositions that include the passed composition. In other words, gets the compositions that have all
-     * the received component types.
+     * the received component types. When caching is enabled the returned map is shared by every caller of the same
+     * query and kept up to date as compositions are registered, so it must not be modified.
+     * <p>
+     * The signature of the types is compiled on every call, even when the result is cached. Queries run every frame
+     * should be compiled once into a {@link QuerySignature}, or a {@code Query} of the pool, and run through
+     * {@link #queryCompositions(QuerySignature)}, whose cache lookup does not allocate.
      *
      * @param components Array of component types
      * @return Map of compositions that match the query
      */
     public Map<CompositionHash, Composition> queryCompositionsWith(Class<?>[] components) {
-        Map<CompositionHash, Composition> compositions = null;
-        for (Class<?> type : components) {
-            Map<CompositionHash, Composition> typeCompositions = compositionTree.get(classIndex.get(type));
-            if (typeCompositions == null) return null;
-            if (compositions == null) {
-                compositions = new ConcurrentHashMap<>(typeCompositions);
-            } else {
-                Set<CompositionHash> hashes = compositions.keySet();
-                hashes.removeIf(compositionHash -> !typeCompositions.containsKey(compositionHash));
-            }
+        return queryCompositions(new QuerySignature(classIndex.getSignature(components), null, null));
+    }
+
+    /**
+     * Gets the compositions that match a query signature. When caching is enabled the returned map is shared by every
+     * caller of the same query and kept up to date as compositions are registered, so it must not be modified.
+     *
+     * @param query Signature of the query
+     * @return Map of compositions that match the query
+     */
+    public Map<CompositionHash, Composition> queryCompositions(QuerySignature query) {
+        if (queryCache == null) return computeQuery(query);
+        Map<CompositionHash, Composition> result = queryCache.get(query);
+        return result != null ? result : cacheQuery(query);
+    }
+
+    /**
+     * Computes and caches the result of a query. Synchronized with the registration of compositions so the result is
+     * complete when published.
+     *
+     * @param query Signature of the query
+     * @return The cached result
+     */
+    private synchronized Map<CompositionHash, Composition> cacheQuery(QuerySignature query) {
+        Map<CompositionHash, Composition> result = queryCache.get(query);
+        if (result != null) return result;
+        result = computeQuery(query);
+        if (queryCache.size() < maxCachedQueries) queryCache.put(query, result);
+        return result;
+    }
+
+    /**
+     * Discards every cached query result, e.g. after running ad-hoc queries that won't be repeated. Results returned
+     * before the call are no longer extended with the compositions registered afterwards, so they must be queried
+     * again.
+     */
+    public synchronized void clearQueryCache() {
+        if (queryCache != null) queryCache.clear();
+    }
+
+    /**
+     * Gets the amount of query results kept by the cache
+     *
+     * @return Amount of cached queries
+     */
+    public int cachedQueries() {
+        return queryCache == null ? 0 : queryCache.size();
+    }
+
+    /**
+     * Computes the compositions that match a query by checking its signature against the signature of every registered
+     * composition, word by word. Whole compositions are rejected here, so their partitions are never iterated.
+     *
+     * @param query Signature of the query
+     * @return Map of compositions that match the query
+     */
+    private Map<CompositionHash, Composition> computeQuery(QuerySignature query) {
+        Map<CompositionHash, Composition> result = new ConcurrentHashMap<>();
+        int count = compositionCount;
+        Composition[] compositionArray = this.compositionArray;
+        CompositionHash[] hashArray = this.hashArray;
+        int[] signatures = this.signatures;
+        for (int i = 0; i < count; i++) {
+            if (query.matches(signatures, i * ClassIndex.SIGNATURE_WORDS)) result.put(hashArray[i], compositionArray[i]);
         }
-        return compositions;
+        return result;
     }
 }
@@ -0,0 +1,31 @@
+package alma.compositions;
+
+import alma.utils.BitIndex;
+
+/**
+ * Signature of a composition query, made of the bit indexes of its terms over the class indexes of the component
+ * types. A composition matches the query if it has all the types of {@code with}, none of the types of {@code without}
+ * and at least one of the types of {@code anyOf}. Terms not used by the query are null.
+ *
+ * @param with    Types every matching composition must have
+ * @param without Types no matching composition can have, null if none
+ * @param anyOf   Types of which matching compositions must have at least one, null if none
+ * @author Santiago Barreiro
+ */
+public record QuerySignature(BitIndex with, BitIndex without, BitIndex anyOf) {
+
+    // METHODS
+
+    /**
+     * Checks if a composition signature matches the query
+     *
+     * @param signatures Array holding the words of the composition signature
+     * @param offset     Position of the first word of the signature within the array
+     * @return True if the composition matches every term of the query
+     */
+    public boolean matches(int[] signatures, int offset) {
+        return with.containedIn(signatures, offset)
+                && (without == null || without.disjointFrom(signatures, offset))
+                && (anyOf == null || !anyOf.disjointFrom(signatures, offset));
+    }
+}
@@ -13,4 +13,10 @@ public class AlmaException extends RuntimeException{
         System.err.println(message);
         this.message = message;
     }
+
+    public AlmaException(String message, Throwable cause) {
+        super(message, cause);
+        System.err.println(message);
+        this.message = message;
+    }
 }
@@ -3,7 +3,9 @@ package alma.utils;
 import java.util.Arrays;
 
 /**
- * BitIndex
+ * BitIndex. Set of non-negative indexes stored as bits within int words, used as the signature of component sets. The
+ * matching methods compare the words of the index with the words of another signature stored within a larger array,
+ * so signatures can be kept densely packed and matched without allocations.
  *
  * @author Santiago Barreiro
  */
@@ -38,6 +40,44 @@ public final class BitIndex {
         return (data[index >> 5] & (1 << (index - (INT_SIZE * (index >> 5))))) != 0;
     }
 
+    /**
+     * Copies the words of this index into an array
+     *
+     * @param target Array to copy the words into
+     * @param offset Position of the first word within the array
+     */
+    public void copyTo(int[] target, int offset) {
+        System.arraycopy(data, 0, target, offset, data.length);
+    }
+
+    /**
+     * Checks if every index set in this index is also set in a signature. (signature AND this) == this
+     *
+     * @param signature Array holding the words of the signature
+     * @param offset    Position of the first word of the signature within the array
+     * @return True if all the indexes are set in the signature
+     */
+    public boolean containedIn(int[] signature, int offset) {
+        for (int i = 0; i < data.length; i++) {
+            if ((signature[offset + i] & data[i]) != data[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if none of the indexes set in this index are set in a signature. (signature AND this) == 0
+     *
+     * @param signature Array holding the words of the signature
+     * @param offset    Position of the first word of the signature within the array
+     * @return True if no index is set in the signature
+     */
+    public boolean disjointFrom(int[] signature, int offset) {
+        for (int i = 0; i < data.length; i++) {
+            if ((signature[offset + i] & data[i]) != 0) return false;
+        }
+        return true;
+    }
+
     @Override
     public int hashCode() {
         return this.hash;
@@ -0,0 +1,75 @@
+package alma.utils;
+
+import alma.api.AlmaComponent;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Creates component instances from their no-args constructors, which are looked up once per component type. Used to
+ * give every entity created or migrated in bulk its own copy of a template component, and to create the views of flat
+ * components. Component types without a no-args constructor can't be instantiated this way.
+ *
+ * @author Santiago Barreiro
+ */
+public final class ComponentFactory {
+
+    // CONSTANTS
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type) {
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return constructor;
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+    };
+
+    // CONSTRUCTORS
+    private ComponentFactory() {
+    }
+
+    // METHODS
+
+    /**
+     * Checks that a component type declares a no-args constructor, so it can be instantiated by this factory. Throws an
+     * exception otherwise.
+     *
+     * @param type Component type
+     */
+    public static void requireNoArgsConstructor(Class<?> type) {
+        if (CONSTRUCTORS.get(type) == null)
+            throw new AlmaException("Component " + type.getSimpleName() + " must declare a no-args constructor");
+    }
+
+    /**
+     * Creates a new instance of a component type through its no-args constructor
+     *
+     * @param type Component type
+     * @param <T>  Component type
+     * @return The new component
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T newInstance(Class<T> type) {
+        requireNoArgsConstructor(type);
+        try {
+            return (T) CONSTRUCTORS.get(type).newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AlmaException("Could not create an instance of component " + type.getSimpleName());
+        }
+    }
+
+    /**
+     * Creates a new component with the values of a template component
+     *
+     * @param template Component to copy
+     * @return A new component of the same type with the values of the template
+     */
+    public static AlmaComponent copyOf(AlmaComponent template) {
+        AlmaComponent copy = newInstance(template.getClass());
+        copy.copy(template);
+        return copy;
+    }
+}
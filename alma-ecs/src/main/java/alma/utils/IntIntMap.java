@@ -0,0 +1,109 @@
+package alma.utils;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative int keys to int values, stored in open addressing arrays so neither keys nor values are boxed.
+ * The arrays only grow, so a map that is cleared and refilled every frame stops allocating once it has reached the size
+ * of a frame.
+ *
+ * @author Santiago Barreiro
+ */
+public final class IntIntMap {
+
+    // CONSTANTS
+    public static final int DEFAULT_SIZE = 64;
+    private static final int EMPTY = -1;            // Key of the free positions
+
+    // ATTRIBUTES
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    // CONSTRUCTORS
+    public IntIntMap() {
+        this(DEFAULT_SIZE);
+    }
+
+    public IntIntMap(int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // GETTERS
+    public int size() {
+        return size;
+    }
+
+    // METHODS
+
+    /**
+     * Gets the value mapped to a key
+     *
+     * @param key          Non-negative key
+     * @param defaultValue Value returned if the key is not mapped
+     * @return The value mapped to the key, or the default value
+     */
+    public int get(int key, int defaultValue) {
+        if (size == 0 || key < 0) return defaultValue;
+        for (int i = hash(key); ; i = i + 1 & mask) {
+            if (keys[i] == key) return values[i];
+            if (keys[i] == EMPTY) return defaultValue;
+        }
+    }
+
+    /**
+     * Maps a value to a key, replacing the previous value of the key
+     *
+     * @param key   Non-negative key
+     * @param value Value to map
+     */
+    public void put(int key, int value) {
+        if (key < 0) throw new AlmaException("Tried to map a negative key");
+        // Half of the positions are kept free so probe sequences stay short
+        if (size << 1 >= keys.length) grow();
+        int i = hash(key);
+        while (keys[i] != EMPTY && keys[i] != key) i = i + 1 & mask;
+        if (keys[i] == EMPTY) size++;
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    /**
+     * Removes every mapping, keeping the arrays
+     */
+    public void clear() {
+        if (size == 0) return;
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private int hash(int key) {
+        // Spreads consecutive keys, as entity IDs usually are, over the whole table
+        int h = key * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    /**
+     * Grows the map by a power of 2
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length << 1];
+        values = new int[oldKeys.length << 1];
+        mask = keys.length - 1;
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int j = hash(oldKeys[i]);
+            while (keys[j] != EMPTY) j = j + 1 & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
@@ -59,6 +59,22 @@ public class IntStack {
         this.data[index] = data;
     }
 
+    /**
+     * Checks if the stack holds no IDs
+     *
+     * @return True if the stack is empty
+     */
+    public boolean isEmpty() {
+        return index == -1;
+    }
+
+    /**
+     * Discards every ID of the stack at once
+     */
+    public void clear() {
+        index = -1;
+    }
+
     /**
      * Grows the stack by a power of 2
      */
@@ -1,9 +1,18 @@
 package alma;
 
 import alma.api.AlmaComponent;
+import alma.utils.AlmaException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import utils.TestComponent;
+import utils.TestFlatComponent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class AlmaPoolTest {
 
@@ -37,6 +46,12 @@ class AlmaPoolTest {
         }
     }
 
+    static class Fixed extends TestComponent {
+        public Fixed(int value) {
+            super(value);
+        }
+    }
+
     AlmaPool sut;
 
     @BeforeEach
@@ -70,4 +85,350 @@ class AlmaPoolTest {
             }
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    void testTypedForEach() {
+        int[] sums = new int[3];
+        sut.queryEntitiesWith(new Class<?>[]{C1.class, C2.class}).forEach(C2.class, C1.class, (entity, c2, c1) -> {
+            sums[0] += c1.value;
+            sums[1] += c2.value;
+            sums[2]++;
+        });
+        assertEquals(30, sums[0]);
+        assertEquals(31, sums[1]);
+        assertEquals(4, sums[2]);
+    }
+
+    @Test
+    void testForEachView() {
+        int[] count = new int[2];
+        sut.queryEntitiesWith(new Class<?>[]{C3.class}).forEachView(view -> {
+            count[0]++;
+            count[1] += view.<C3>get(0).value;
+        });
+        assertEquals(4, count[0]);
+        assertEquals(6 + 8 + 9 + 13, count[1]);
+    }
+
+    @Test
+    void testForEachParallel() {
+        // Enough entities to fill several chunks of the C1 partition
+        for (int i = 0; i < 10000; i++) sut.createEntity(new AlmaComponent[]{new C1(1)});
+        AtomicInteger count = new AtomicInteger();
+        AtomicInteger sum = new AtomicInteger();
+        sut.queryEntitiesWith(new Class<?>[]{C1.class}).forEachParallel(C1.class, (entity, c1) -> {
+            count.incrementAndGet();
+            sum.addAndGet(c1.value);
+        });
+        assertEquals(10005, count.get());
+        assertEquals(10000 + 1 + 2 + 14 + 4 + 10, sum.get());
+    }
+
+    @Test
+    void testStream() {
+        for (int i = 0; i < 10000; i++) sut.createEntity(new AlmaComponent[]{new C1(i), new C3(1)});
+        QueryResult result = sut.queryEntitiesWith(new Class<?>[]{C3.class});
+
+        Spliterator<Entity> spliterator = result.spliterator();
+        assertEquals(10004, spliterator.getExactSizeIfKnown());
+        Spliterator<Entity> split = spliterator.trySplit();
+        assertNotNull(split);
+        assertEquals(10004, spliterator.getExactSizeIfKnown() + split.getExactSizeIfKnown());
+
+        assertEquals(10004, result.stream().count());
+        assertEquals(10000 + 6 + 8 + 9 + 13,
+                result.parallelStream().mapToInt(e -> ((C3) e.components()[0]).value).sum());
+    }
+
+    @Test
+    void testQueryBuilder() {
+        sut.createEntity(new AlmaComponent[]{new C2(20)});
+        // Entities with C2 but not C3, fetching C1 when present
+        Query query = sut.query().with(C2.class).without(C3.class).optional(C1.class).build();
+        int[] sums = new int[3];
+        sut.queryEntities(query).forEachEntity(entity -> {
+            sums[0] += ((C2) entity.components()[0]).value;
+            if (entity.components()[1] != null) sums[1] += ((C1) entity.components()[1]).value;
+            sums[2]++;
+        });
+        assertArrayEquals(new int[]{3 + 20, 2, 2}, sums);
+
+        // Entities with C1 or C3 but not C2
+        int[] count = new int[1];
+        sut.queryEntities(sut.query().anyOf(C1.class, C3.class).without(C2.class).build())
+                .forEachView(view -> count[0]++);
+        assertEquals(1, count[0]);
+
+        assertThrows(AlmaException.class, () -> sut.query().with(C1.class).without(C1.class).build());
+        assertThrows(AlmaException.class, () -> AlmaPool.Factory.create().queryEntities(query));
+    }
+
+    @Test
+    void testAddRemoveComponent() {
+        C1 c1 = new C1(100);
+        int entity = sut.createEntity(new AlmaComponent[]{c1, new TestFlatComponent(1.5f, 7)});
+        entity = sut.addComponent(entity, new C2(200));
+
+        int[] found = new int[3];
+        sut.queryEntitiesWith(new Class<?>[]{C2.class, TestFlatComponent.class}).forEach(C1.class, C2.class,
+                TestFlatComponent.class, (id, a, b, flat) -> {
+                    assertSame(c1, a);
+                    found[0] = b.value;
+                    found[1] = flat.getValue();
+                    found[2] = id;
+                });
+        assertArrayEquals(new int[]{200, 7, entity}, found);
+        assertEquals(0, sut.queryEntitiesWith(new Class<?>[]{C1.class, TestFlatComponent.class}).stream()
+                .filter(e -> e.components()[0] == c1 && e.id() != found[2]).count());
+
+        // Back and forth through the cached edges
+        entity = sut.removeComponent(entity, C1.class);
+        entity = sut.addComponent(entity, new C1(300));
+        entity = sut.removeComponent(entity, C2.class);
+        int[] values = new int[2];
+        sut.queryEntities(sut.query().with(TestFlatComponent.class).without(C2.class).build())
+                .forEach(C1.class, TestFlatComponent.class, (id, a, flat) -> {
+                    values[0] += a.value;
+                    values[1] += flat.getValue();
+                });
+        assertArrayEquals(new int[]{300, 7}, values);
+
+        int stale = entity;
+        assertThrows(AlmaException.class, () -> sut.addComponent(stale, new C1(1)));
+        sut.removeComponent(entity, C1.class);
+        assertThrows(AlmaException.class, () -> sut.removeComponent(stale, C1.class));
+    }
+
+    @Test
+    void testBulkMigration() {
+        for (Partition.Mode mode : Partition.Mode.values()) {
+            AlmaPool pool = AlmaPool.Factory.create(mode);
+            // Target composition with a recycled ID, so the first moved entity fills the hole
+            int hole = pool.createEntity(new AlmaComponent[]{new C1(0), new C2(0), new TestFlatComponent(0, 0)});
+            pool.createEntity(new AlmaComponent[]{new C1(0), new C2(0), new TestFlatComponent(0, 0)});
+            pool.removeComponent(hole, C1.class);
+            for (int i = 0; i < 9000; i++) {
+                int entity = pool.createEntity(new AlmaComponent[]{new C1(i), new TestFlatComponent(i, i)});
+                if (i % 3 == 0) pool.removeComponent(pool.addComponent(entity, new C3(0)), C3.class);
+            }
+            Query query = pool.query().with(C1.class).without(C2.class).build();
+            Map<Integer, Integer> ids = new HashMap<>();
+            assertEquals(9000, pool.addComponentToAll(query, new C2(5), ids::put));
+            assertEquals(9000, ids.size());
+            assertEquals(0, pool.queryEntities(query).stream().count());
+
+            long[] sums = new long[3];
+            pool.queryEntitiesWith(new Class<?>[]{C1.class, C2.class, TestFlatComponent.class})
+                    .forEach(C1.class, C2.class, TestFlatComponent.class, (id, c1, c2, flat) -> {
+                        sums[0]++;
+                        sums[1] += c1.value;
+                        sums[2] += c2.value;
+                        assertEquals(c1.value, flat.getValue());
+                    });
+            assertArrayEquals(new long[]{9001, 9000L * 8999 / 2, 9000 * 5}, sums);
+
+            assertEquals(9002, pool.removeComponentFromAll(pool.query().with(C2.class).build(), C2.class, null));
+            assertEquals(9001, pool.queryEntitiesWith(new Class<?>[]{C1.class}).stream().count());
+        }
+    }
+
+    @Test
+    void testCommandBuffers() {
+        // Structural changes recorded while walking, from several threads
+        for (int i = 0; i < 5000; i++) sut.createEntity(new AlmaComponent[]{new C1(i)});
+        QueryResult onlyC1 = sut.queryEntities(sut.query().with(C1.class).without(C2.class, C3.class).build());
+        onlyC1.forEachParallel(C1.class, (entity, c1) -> {
+            CommandBuffer commands = sut.commands();
+            if (c1.value % 2 == 0) {
+                commands.addComponent(entity, new C2(1));
+                commands.removeComponent(entity, C1.class);
+            } else {
+                commands.destroyEntity(entity);
+                commands.destroyEntity(entity);
+            }
+        });
+        sut.commands().createEntity(new AlmaComponent[]{new C3(50)});
+        assertEquals(5001, onlyC1.stream().count());
+
+        // Adds and removals of the same entity are chained through its new IDs
+        assertEquals(2500 + 2500 + 2501 + 1, sut.flushCommands());
+        assertEquals(0, onlyC1.stream().count());
+        assertEquals(2500, sut.queryEntities(sut.query().with(C2.class).without(C1.class, C3.class).build())
+                .stream().count());
+        assertEquals(5, sut.queryEntitiesWith(new Class<?>[]{C3.class}).stream().count());
+        assertEquals(0, sut.flushCommands());
+    }
+
+    @Test
+    void testCommandBufferRecycling() throws InterruptedException {
+        // Each thread records once and finishes, as the I/O systems running on virtual threads do
+        for (int round = 0; round < 10; round++) {
+            Thread[] threads = new Thread[20];
+            for (int i = 0; i < threads.length; i++) {
+                int value = round * threads.length + i;
+                threads[i] = new Thread(() -> sut.commands().createEntity(new AlmaComponent[]{new C3(value)}));
+                threads[i].start();
+            }
+            for (Thread thread : threads) thread.join();
+            assertEquals(threads.length, sut.flushCommands());
+            assertEquals(0, sut.registeredCommandBuffers());
+        }
+        assertEquals(204, sut.queryEntitiesWith(new Class<?>[]{C3.class}).stream().count());
+
+        // Buffers of live threads are kept
+        sut.commands().destroyEntity(0);
+        sut.flushCommands();
+        assertEquals(1, sut.registeredCommandBuffers());
+    }
+
+    @Test
+    void testCopiesNeedNoArgsConstructors() {
+        // Bulk operations copy their templates, so they reject types without a no-args constructor up front
+        assertThrows(AlmaException.class, () -> sut.createEntities(10, new AlmaComponent[]{new C1(1), new Fixed(2)}, null));
+        assertEquals(0, sut.queryEntitiesWith(new Class<?>[]{Fixed.class}).stream().count());
+        assertThrows(AlmaException.class,
+                () -> sut.addComponentToAll(sut.query().with(C1.class).build(), new Fixed(3), null));
+        assertEquals(5, sut.queryEntities(sut.query().with(C1.class).without(Fixed.class).build()).stream().count());
+
+        // Single entities store the passed instances, so they need no copy
+        sut.createEntity(new AlmaComponent[]{new Fixed(4)});
+        assertEquals(1, sut.queryEntitiesWith(new Class<?>[]{Fixed.class}).stream().count());
+    }
+
+    @Test
+    void testBatchDestruction() {
+        for (Partition.Mode mode : Partition.Mode.values()) {
+            AlmaPool pool = AlmaPool.Factory.create(mode);
+            int[] ids = new int[6000];
+            pool.createEntities(3000, new AlmaComponent[]{new C1(1)}, ids);
+            for (int i = 3000; i < ids.length; i++) ids[i] = pool.createEntity(new AlmaComponent[]{new C2(i), new C3(1)});
+
+            // Every other entity, in reverse order and with duplicates
+            int[] destroyed = new int[ids.length];
+            for (int i = 0; i < ids.length; i += 2) destroyed[i] = destroyed[i + 1] = ids[ids.length - 2 - i];
+            assertEquals(3000, pool.destroyEntities(destroyed));
+            assertEquals(1500, pool.queryEntitiesWith(new Class<?>[]{C1.class}).stream().count());
+            assertEquals(1500, pool.queryEntitiesWith(new Class<?>[]{C2.class}).stream()
+                    .filter(e -> ((C2) e.components()[0]).value % 2 == 1).count());
+            assertEquals(0, pool.destroyEntities(destroyed));
+
+            assertEquals(1500, pool.destroyAll(pool.query().with(C3.class).build()));
+            assertEquals(0, pool.queryEntitiesWith(new Class<?>[]{C2.class}).stream().count());
+            assertEquals(1500, pool.queryEntitiesWith(new Class<?>[]{C1.class}).stream().count());
+
+            // Cleared partitions are reused from their first slot
+            int created = pool.createEntity(new AlmaComponent[]{new C3(2), new C2(2)});
+            assertEquals(1, pool.queryEntitiesWith(new Class<?>[]{C2.class, C3.class}).stream()
+                    .filter(e -> e.id() == created).count());
+        }
+    }
+
+    @Test
+    void testBatchDestructionWithGenerations() {
+        for (Partition.Mode mode : Partition.Mode.values()) {
+            AlmaPool pool = AlmaPool.Factory.create(mode, 4);
+            int[] ids = new int[200];
+            pool.createEntities(ids.length, new AlmaComponent[]{new C1(1)}, ids);
+            // Reused items get a higher generation, so their IDs sort after every ID of the first generation
+            int[] reused = new int[100];
+            for (int i = 0; i < reused.length; i++) pool.destroyEntity(ids[i * 2]);
+            pool.createEntities(reused.length, new AlmaComponent[]{new C1(2)}, reused);
+            int[] mixed = new int[ids.length];
+            for (int i = 0; i < reused.length; i++) {
+                mixed[i * 2] = reused[reused.length - 1 - i];
+                mixed[i * 2 + 1] = ids[i * 2 + 1];
+            }
+            assertEquals(ids.length, pool.destroyEntities(mixed));
+            assertEquals(0, pool.queryEntitiesWith(new Class<?>[]{C1.class}).stream().count());
+            assertEquals(0, pool.destroyEntities(ids));
+        }
+    }
+
+    @Test
+    void testStaleIds() {
+        for (Partition.Mode mode : Partition.Mode.values()) {
+            AlmaPool pool = AlmaPool.Factory.create(mode, 4);
+            int first = pool.createEntity(new AlmaComponent[]{new C1(1)});
+            int second = pool.createEntity(new AlmaComponent[]{new C1(2)});
+            pool.destroyEntity(first);
+            int reused = pool.createEntity(new AlmaComponent[]{new C1(3)});
+            assertNotEquals(first, reused);
+            assertFalse(pool.isAlive(first));
+            assertTrue(pool.isAlive(second));
+            assertTrue(pool.isAlive(reused));
+            assertEquals(0, pool.destroyEntities(new int[]{first}));
+
+            // Clearing a partition retires every ID at once
+            pool.destroyAll(pool.query().with(C1.class).build());
+            int cleared = pool.createEntity(new AlmaComponent[]{new C1(4)});
+            assertFalse(pool.isAlive(second));
+            assertFalse(pool.isAlive(reused));
+            assertTrue(pool.isAlive(cleared));
+            assertEquals(1, pool.queryEntitiesWith(new Class<?>[]{C1.class}).stream().count());
+        }
+    }
+
+    @Test
+    void testInvalidId() {
+        for (Partition.Mode mode : Partition.Mode.values()) {
+            AlmaPool pool = AlmaPool.Factory.create(mode, 4);
+            int invalid = new IdHandler().invalidValue;
+            // The invalid ID decodes to the first slot of the first partition, which is free after the destruction
+            int entity = pool.createEntity(new AlmaComponent[]{new C1(1)});
+            int other = pool.createEntity(new AlmaComponent[]{new C1(2)});
+            pool.destroyEntity(entity);
+            assertFalse(pool.isAlive(invalid));
+            assertEquals(0, pool.destroyEntities(new int[]{invalid}));
+            assertThrows(AlmaException.class, () -> pool.destroyEntity(invalid));
+            assertTrue(pool.isAlive(other));
+            assertEquals(1, pool.queryEntitiesWith(new Class<?>[]{C1.class}).stream().count());
+            int reused = pool.createEntity(new AlmaComponent[]{new C1(3)});
+            assertTrue(pool.isAlive(reused));
+            assertEquals(2, pool.queryEntitiesWith(new Class<?>[]{C1.class}).stream().count());
+        }
+    }
+
+    @Test
+    void testGetSet() {
+        for (Partition.Mode mode : Partition.Mode.values()) {
+            AlmaPool pool = AlmaPool.Factory.create(mode, 4);
+            C1 c1 = new C1(1);
+            int entity = pool.createEntity(new AlmaComponent[]{new TestFlatComponent(1.5f, 7), c1});
+            assertSame(c1, pool.get(entity, C1.class));
+            assertNull(pool.get(entity, C2.class));
+            assertEquals(new TestFlatComponent(1.5f, 7), pool.get(entity, TestFlatComponent.class));
+
+            pool.set(entity, new C1(5));
+            pool.set(entity, new TestFlatComponent(2.5f, 9));
+            assertSame(c1, pool.get(entity, C1.class));
+            assertEquals(5, c1.value);
+            TestFlatComponent view = new TestFlatComponent();
+            assertTrue(pool.bind(entity, view));
+            assertEquals(9, view.getValue());
+            view.setValue(11);
+            assertEquals(11, pool.get(entity, TestFlatComponent.class).getValue());
+            assertThrows(AlmaException.class, () -> pool.set(entity, new C2(1)));
+
+            pool.destroyEntity(entity);
+            assertThrows(AlmaException.class, () -> pool.get(entity, C1.class));
+        }
+    }
+
+    @Test
+    void testUniversalIds() {
+        AlmaPool first = AlmaPool.Factory.create(Partition.Mode.PACKED, new IdHandler(12, 12, 7), 1);
+        AlmaPool second = AlmaPool.Factory.create(Partition.Mode.PACKED, new IdHandler(12, 12, 7), 2);
+        first.createEntity(new AlmaComponent[]{new C1(1)});
+        int entity = first.createEntity(new AlmaComponent[]{new C1(2), new C2(2)});
+        long universal = first.toUniversalId(entity);
+        assertEquals(entity, first.fromUniversalId(universal));
+        assertEquals(2, first.get(first.fromUniversalId(universal), C1.class).value);
+        assertThrows(AlmaException.class, () -> second.fromUniversalId(universal));
+        assertNotEquals(universal, second.toUniversalId(entity));
+
+        // Universal IDs whose segments don't fit within the layout of the pool are rejected, not aliased
+        LongIdHandler layout = new LongIdHandler();
+        assertThrows(AlmaException.class, () -> first.fromUniversalId(layout.generateId(1, 3, 0, 1L << 19)));
+        assertThrows(AlmaException.class, () -> first.fromUniversalId(layout.generateId(1, 3, 1 << 7, 1)));
+    }
+}
@@ -1,9 +1,11 @@
 package alma;
 
 import alma.api.AlmaComponent;
+import alma.compositions.ClassIndex;
 import alma.compositions.Composition;
 import alma.utils.CompositionHash;
 import alma.compositions.CompositionManager;
+import alma.compositions.QuerySignature;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -163,4 +165,62 @@ class CompositionManagerTest {
         assertEquals(expected1, actual1.size());
         assertEquals(expected3, actual3.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void querySignatureTest() {
+
+        TestUtils.printTestHeader("querySignatureTest");
+        ClassIndex classIndex = cm.getClassIndex();
+        Composition c1c2 = cm.getComposition(new AlmaComponent[]{new C1(), new C2()});
+        Composition c2c3 = cm.getComposition(new AlmaComponent[]{new C2(), new C3()});
+        cm.getComposition(new AlmaComponent[]{new C2(), new C3(), new C4()});
+        cm.getComposition(new AlmaComponent[]{new C3()});
+
+        // With C2, without C4 and with any of C1 or C3
+        QuerySignature query = new QuerySignature(classIndex.getSignature(new Class<?>[]{C2.class}),
+                classIndex.getSignature(new Class<?>[]{C4.class}),
+                classIndex.getSignature(new Class<?>[]{C1.class, C3.class}));
+        Map<CompositionHash, Composition> actual = cm.queryCompositions(query);
+        TestUtils.printTestIteration("Compositions with C2, without C4", 2, actual.values());
+
+        assertEquals(2, actual.size());
+        assertTrue(actual.containsValue(c1c2));
+        assertTrue(actual.containsValue(c2c3));
+        assertTrue(cm.queryCompositions(new QuerySignature(classIndex.getSignature(new Class<?>[]{C2.class}),
+                classIndex.getSignature(new Class<?>[]{C2.class}), null)).isEmpty());
+    }
+
+    @Test
+    public void queryCacheTest() {
+
+        TestUtils.printTestHeader("queryCacheTest");
+        cm.getComposition(new AlmaComponent[]{new C1(), new C2()});
+
+        // Queried before any composition with C3 exists, the cached result is extended as they are created
+        Map<CompositionHash, Composition> actual = cm.queryCompositionsWith(new Class<?>[]{C2.class, C3.class});
+        assertTrue(actual.isEmpty());
+        cm.getComposition(new AlmaComponent[]{new C2(), new C3()});
+        cm.getComposition(new AlmaComponent[]{new C3()});
+        cm.getComposition(new AlmaComponent[]{new C4(), new C3(), new C2()});
+        TestUtils.printTestIteration("Compositions with C2 and C3", 2, actual.values());
+
+        assertEquals(2, actual.size());
+        assertSame(actual, cm.queryCompositionsWith(new Class<?>[]{C3.class, C2.class}));
+
+        // A full cache computes new queries on every call, and clearing it releases every cached result
+        CompositionManager bounded = new CompositionManager(new ClassIndex(), 1);
+        bounded.getComposition(new AlmaComponent[]{new C2(), new C3()});
+        assertSame(bounded.queryCompositionsWith(new Class<?>[]{C2.class}),
+                bounded.queryCompositionsWith(new Class<?>[]{C2.class}));
+        assertNotSame(bounded.queryCompositionsWith(new Class<?>[]{C3.class}),
+                bounded.queryCompositionsWith(new Class<?>[]{C3.class}));
+        assertEquals(1, bounded.cachedQueries());
+        bounded.clearQueryCache();
+        assertEquals(0, bounded.cachedQueries());
+
+        CompositionManager uncached = new CompositionManager(new ClassIndex(), false);
+        uncached.getComposition(new AlmaComponent[]{new C2(), new C3()});
+        assertNotSame(uncached.queryCompositionsWith(new Class<?>[]{C2.class}),
+                uncached.queryCompositionsWith(new Class<?>[]{C2.class}));
+    }
+}
@@ -1,5 +1,6 @@
 package alma;
 
+import alma.utils.AlmaException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -122,4 +123,84 @@ class IdHandlerTest {
                 () -> assertEquals(expectedMax2, actualMax2)
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void generationTest() {
+        TestUtils.printTestHeader("generationTest");
+        IdHandler handler = new IdHandler(12, 12, 4);
+        int id = handler.generateIID(3, 5, 77);
+        int wrapped = handler.generateIID(3, 16 + 5, 77);
+        TestUtils.printTestIteration("Item mask", "00000000000000000111111111111111", TestUtils.intToBinaryString(handler.itemMask));
+        TestUtils.printTestIteration("Generation mask", "00000000000001111000000000000000", TestUtils.intToBinaryString(handler.generationMask));
+        TestUtils.printTestIteration("Partition: 3, Generation: 5, Item: 77", 5, handler.getGeneration(id));
+        assertAll(
+                () -> assertEquals("00000000000000000111111111111111", TestUtils.intToBinaryString(handler.itemMask)),
+                () -> assertEquals("00000000000001111000000000000000", TestUtils.intToBinaryString(handler.generationMask)),
+                () -> assertEquals(3, handler.getPartitionId(id)),
+                () -> assertEquals(5, handler.getGeneration(id)),
+                () -> assertEquals(77, handler.getItemId(id)),
+                () -> assertEquals(id, wrapped),
+                () -> assertEquals(0, IDm.getGeneration(IDm.generateIID(4095, 524287))),
+                () -> assertThrows(IllegalArgumentException.class, () -> new IdHandler(12, 12, 8))
+        );
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void chunkTest() {
+        TestUtils.printTestHeader("chunkTest");
+        int[] expectedCapacities = {64, 64, 128, 256, 512, 1024, 2048, 4096, 4096};
+        int[] actualCapacities = new int[expectedCapacities.length];
+        for (int i = 0; i < actualCapacities.length; i++) actualCapacities[i] = IDm.getChunkCapacity(i);
+        // Walks the slots through consecutive chunks of the expected capacities
+        boolean located = true;
+        int slot = 0;
+        for (int chunk = 0; chunk < expectedCapacities.length; chunk++) {
+            for (int pos = 0; pos < expectedCapacities[chunk]; pos++, slot++) {
+                located &= IDm.getSlotChunk(slot) == chunk && IDm.getSlotChunkPos(slot) == pos;
+            }
+        }
+        int id = IDm.generateIID(5, 8191);
+        TestUtils.printTestIteration("Chunk capacities", expectedCapacities[8], actualCapacities[8]);
+        TestUtils.printTestIteration("Slots located", true, located);
+        assertAll(
+                () -> assertArrayEquals(expectedCapacities, actualCapacities),
+                () -> assertEquals(4096, IDm.partitionChunkCapacity),
+                () -> assertEquals(7, IDm.getPartitionChunk(id)),
+                () -> assertEquals(4095, IDm.getPartitionChunkPos(id)),
+                () -> assertEquals(0, new IdHandler(12, 4).getSlotChunkPos(16)),
+                () -> assertEquals(1, new IdHandler(12, 4).getSlotChunk(16))
+        );
+        assertTrue(located);
+    }
+
+    @Test
+    void longIdTest() {
+        TestUtils.printTestHeader("longIdTest");
+        LongIdHandler handler = new LongIdHandler();
+        IdHandler local = new IdHandler(12, 12, 4);
+        int localId = local.generateIID(4095, 9, 524287 >> 4);
+        long id = handler.fromLocal(65535, local, localId);
+        long large = handler.generateId(3, 7, 1, (1L << 23) - 1);
+        TestUtils.printTestIteration("World: 65535, Partition: 4095, Generation: 9", localId, handler.toLocal(local, id));
+        assertAll(
+                () -> assertEquals(65535, handler.getWorldId(id)),
+                () -> assertEquals(4095, handler.getPartitionId(id)),
+                () -> assertEquals(9, handler.getGeneration(id)),
+                () -> assertEquals(524287 >> 4, handler.getItemId(id)),
+                () -> assertEquals(localId, handler.toLocal(local, id)),
+                () -> assertTrue(id > 0),
+                () -> assertEquals(3, handler.getWorldId(large)),
+                () -> assertEquals(7, handler.getPartitionId(large)),
+                () -> assertEquals(1, handler.getGeneration(large)),
+                () -> assertEquals((1L << 23) - 1, handler.getItemId(large)),
+                () -> assertEquals(30, LongIdHandler.of(new IdHandler(1, 12)).itemBits),
+                () -> assertThrows(IllegalArgumentException.class, () -> new LongIdHandler(16, 16, 16, 16)),
+                // The default layout has a wider item segment than the integer layout, overflowing items are rejected
+                () -> assertThrows(AlmaException.class, () -> handler.toLocal(local, large)),
+                () -> assertThrows(AlmaException.class,
+                        () -> new LongIdHandler(16, 12, 0, 19).fromLocal(0, local, localId)),
+                () -> assertThrows(AlmaException.class, () -> handler.fromLocal(1 << 16, local, localId))
+        );
+    }
+}
@@ -1,11 +1,13 @@
 package alma;
 
 import alma.api.AlmaComponent;
+import alma.compositions.ClassIndex;
 import alma.utils.AlmaException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import utils.TestComponent;
+import utils.TestFlatComponent;
 import utils.TestUtils;
 
 import java.util.Arrays;
@@ -51,6 +53,16 @@ class PartitionTest {
         }
     }
 
+    static class F1 extends TestFlatComponent {
+        public F1(float x, int value) {
+            super(x, value);
+        }
+
+        public F1() {
+            super();
+        }
+    }
+
     @BeforeEach
     void setUp() {
         sut1 = new Partition(1, new IdHandler(), 1, new int[]{-1, 0});
@@ -151,6 +163,133 @@ class PartitionTest {
         });
     }
 
+    @Test
+    void testFetchFilteredComponents() {
+        TestUtils.printTestHeader("testFetchFilteredComponents");
+        AlmaComponent[] expected = new AlmaComponent[]{new C3(6), new C1(4)};
+        sut3.addEntityUnsafe(new AlmaComponent[]{new C1(1), new C2(2), new C3(3)});
+        int id = sut3.addEntityUnsafe(new AlmaComponent[]{new C1(4), new C2(5), new C3(6)});
+        AlmaComponent[] actual = sut3.fetchEntityComponents(id, new int[]{3, 1});
+
+        TestUtils.printTestIteration("Filtered components", Arrays.toString(expected), Arrays.toString(actual));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void testFlatComponents() {
+        TestUtils.printTestHeader("testFlatComponents");
+        Partition sutFlat = new Partition(4, new IdHandler(), 2, new int[]{-1, 0, 1}, new Class<?>[]{C1.class, F1.class});
+        sutFlat.addEntityUnsafe(new AlmaComponent[]{new C1(1), new F1(1.5f, 2)});
+        int id = sutFlat.addEntityUnsafe(new AlmaComponent[]{new C1(3), new F1(3.5f, 4)});
+        AlmaComponent[] expected = new AlmaComponent[]{new C1(3), new F1(3.5f, 4)};
+        AlmaComponent[] actual = sutFlat.fetchEntityComponents(id);
+        TestUtils.printTestIteration("Flat components", Arrays.toString(expected), Arrays.toString(actual));
+        assertArrayEquals(expected, actual);
+
+        // Views are bound to the chunk memory, so changes through them are visible to later fetches
+        ((F1) actual[1]).setValue(40);
+        F1 modified = (F1) sutFlat.fetchEntityComponents(id, new int[]{2})[0];
+        TestUtils.printTestIteration("Modified through view", 40, modified.getValue());
+        assertEquals(40, modified.getValue());
+        assertEquals(3.5f, modified.getX());
+    }
+
+    @Test
+    void testChunkGrowth() {
+        TestUtils.printTestHeader("testChunkGrowth");
+        for (Partition.Mode mode : Partition.Mode.values()) {
+            Partition sutGrowth = new Partition(7, new IdHandler(), 2, new int[]{-1, 0, 1}, new Class<?>[]{C1.class, F1.class}, mode);
+            int[] ids = new int[10000];
+            for (int i = 0; i < ids.length; i++) ids[i] = sutGrowth.addEntityUnsafe(new AlmaComponent[]{new C1(i), new F1(i, i)});
+            int[] expectedCapacities = {64, 64, 128, 256, 512, 1024, 2048, 4096, 4096};
+            int[] actualCapacities = new int[sutGrowth.usedChunks()];
+            for (int i = 0; i < actualCapacities.length; i++) actualCapacities[i] = sutGrowth.chunkCapacity(i);
+            TestUtils.printTestIteration("Chunk capacities (" + mode + ")", Arrays.toString(expectedCapacities), Arrays.toString(actualCapacities));
+            assertArrayEquals(expectedCapacities, actualCapacities);
+
+            boolean stored = true;
+            for (int i = 0; i < ids.length; i++) {
+                AlmaComponent[] components = sutGrowth.fetchEntityComponents(ids[i]);
+                stored &= ((C1) components[0]).value == i && ((F1) components[1]).getValue() == i;
+            }
+            for (int i = 0; i < ids.length; i += 2) sutGrowth.removeEntity(ids[i]);
+            int[] iterated = new int[1];
+            sutGrowth.forEach(new EntityView(new int[]{1, 2}), view -> {
+                if (view.<C1>get(0).value != view.<F1>get(1).getValue()) iterated[0] = Integer.MIN_VALUE;
+                iterated[0]++;
+            });
+            TestUtils.printTestIteration("Stored across chunks (" + mode + ")", true, stored);
+            assertTrue(stored);
+            assertEquals(5000, iterated[0]);
+        }
+    }
+
+    @Test
+    void testPackedRemove() {
+        TestUtils.printTestHeader("testPackedRemove");
+        Partition sutPacked = new Partition(5, new IdHandler(), 2, new int[]{-1, 0, 1}, null, Partition.Mode.PACKED);
+        int[] ids = new int[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = sutPacked.addEntityUnsafe(new AlmaComponent[]{new C1(i), new C2(i * 10)});
+        }
+        sutPacked.removeEntity(ids[1]);
+        sutPacked.removeEntity(ids[3]);
+        int reused = sutPacked.addEntityUnsafe(new AlmaComponent[]{new C1(7), new C2(70)});
+
+        // IDs are kept stable while the entities are moved around to fill the holes
+        AlmaComponent[] expected = new AlmaComponent[]{new C1(4), new C2(40)};
+        AlmaComponent[] actual = sutPacked.fetchEntityComponents(ids[4]);
+        int iterated = 0;
+        Iterator<Entity> iterator = sutPacked.filteredIterator(new int[]{1});
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterated++;
+        }
+
+        TestUtils.printTestIteration("Size", 4, sutPacked.size());
+        TestUtils.printTestIteration("Moved entity", Arrays.toString(expected), Arrays.toString(actual));
+        TestUtils.printTestIteration("Iterated", 4, iterated);
+        assertEquals(4, sutPacked.size());
+        assertEquals(ids[3], reused);
+        assertArrayEquals(expected, actual);
+        assertArrayEquals(new AlmaComponent[]{new C1(7), new C2(70)}, sutPacked.fetchEntityComponents(reused));
+        assertEquals(4, iterated);
+    }
+
+    @Test
+    void testSparseIteration() {
+        TestUtils.printTestHeader("testSparseIteration");
+        Partition sutSparse = new Partition(6, new IdHandler(12, 6), 1, new int[]{-1, 0});
+        int[] ids = new int[200];
+        for (int i = 0; i < ids.length; i++) ids[i] = sutSparse.addEntityUnsafe(new AlmaComponent[]{new C1(i)});
+        // Empties the first two chunks and leaves one entity out of every three in the rest
+        for (int i = 0; i < ids.length; i++) {
+            if (i < 128 || i % 3 != 0) sutSparse.removeEntity(ids[i]);
+        }
+
+        int iterated = 0;
+        boolean ordered = true;
+        Iterator<Entity> iterator = sutSparse.filteredIterator(new int[]{1});
+        for (int i = 129; iterator.hasNext(); i += 3) {
+            Entity e = iterator.next();
+            ordered &= e.id() == ids[i] && ((C1) e.components()[0]).value == i;
+            iterated++;
+        }
+
+        TestUtils.printTestIteration("Iterated", sutSparse.size(), iterated);
+        TestUtils.printTestIteration("Ordered", true, ordered);
+        assertEquals(sutSparse.size(), iterated);
+        assertTrue(ordered);
+    }
+
+    /**
+     * Chunks start with 64 slots and double their capacity up to 4096 slots, so 7 chunks hold the first 4096 entities
+     */
+    private static int expectedChunks(int size) {
+        if (size <= 4096) return 33 - Integer.numberOfLeadingZeros((size - 1) >> 6);
+        return 7 + (int) Math.ceil((float) (size - 4096) / 4096);
+    }
+
     @Test
     void testAdding500000_2() {
         TestUtils.printTestHeader("testAdding500000_2 - STRESS TEST");
@@ -162,7 +301,7 @@ class PartitionTest {
             int partitionSize = (int) (Math.random() * 500000 + 2001);
             int removeInterval = (int) (Math.random() * 100 + 31);
             int expectedFinalSize = partitionSize - (partitionSize / removeInterval) - (partitionSize % removeInterval != 0 ? 1 : 0);
-            int expectedChunksUsed = (int) Math.ceil((float) expectedFinalSize / 4096);
+            int expectedChunksUsed = expectedChunks(expectedFinalSize);
 
             int randomEntityComponentCheck = (int) (Math.random() * expectedFinalSize + 0);
             int randomComponentCheckEntity = -1;
@@ -209,7 +348,7 @@ class PartitionTest {
             int partitionSize = (int) (Math.random() * 500000 + 2001);
             int removeInterval = (int) (Math.random() * 100 + 31);
             int expectedFinalSize = partitionSize - (partitionSize / removeInterval) - (partitionSize % removeInterval != 0 ? 1 : 0);
-            int expectedChunksUsed = (int) Math.ceil((float) expectedFinalSize / 4096);
+            int expectedChunksUsed = expectedChunks(expectedFinalSize);
 
             int randomEntityComponentCheck = (int) (Math.random() * expectedFinalSize + 0);
             int randomComponentCheckEntity = -1;
@@ -270,4 +409,30 @@ class PartitionTest {
         assertArrayEquals(expectedArray, e.components());
         assertThrows(AlmaException.class, iFailure::next);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAddEntities() {
+        TestUtils.printTestHeader("testAddEntities");
+        ClassIndex classIndex = new ClassIndex();
+        Class<?>[] types = new Class<?>[]{C1.class, F1.class};
+        for (Partition.Mode mode : Partition.Mode.values()) {
+            // Small chunks so the runs are split between several chunks
+            Partition sutBatch = new Partition(6, new IdHandler(12, 6), 2, classIndex.getIndexArray(types), types, mode);
+            int hole = sutBatch.addEntitySafe(new AlmaComponent[]{new C1(0), new F1(0, 0)}, classIndex);
+            sutBatch.removeEntity(hole);
+            int[] ids = new int[200];
+            sutBatch.addEntities(ids.length, new AlmaComponent[]{new F1(2.5f, 3), new C1(9)}, classIndex, ids, 0);
+
+            AlmaComponent[] first = sutBatch.fetchEntityComponents(ids[0]);
+            AlmaComponent[] last = sutBatch.fetchEntityComponents(ids[ids.length - 1]);
+            TestUtils.printTestIteration("Size", ids.length, sutBatch.size());
+            TestUtils.printTestIteration("Last entity", "[9, 3]", Arrays.toString(last));
+            assertEquals(ids.length, sutBatch.size());
+            assertEquals(hole, ids[0]);
+            assertEquals(ids.length, Arrays.stream(ids).distinct().count());
+            assertEquals(new C1(9), last[0]);
+            assertEquals(3, ((F1) last[1]).getValue());
+            assertNotSame(first[0], last[0]);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package alma;
+
+import alma.api.AlmaComponent;
+import alma.api.AlmaSystem;
+import alma.utils.AlmaException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import utils.TestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchedulerTest {
+
+    static class C1 {
+    }
+
+    static class C2 {
+    }
+
+    /**
+     * System recording its name when it runs, optionally waiting for other systems to run at the same time
+     */
+    static class RecordingSystem extends AlmaSystem {
+        private final String name;
+        private final List<String> log;
+        private final CountDownLatch together;
+        private boolean overlapped;
+
+        RecordingSystem(String name, List<String> log, CountDownLatch together) {
+            this.name = name;
+            this.log = log;
+            this.together = together;
+        }
+
+        @Override
+        public void run() {
+            if (together != null) {
+                together.countDown();
+                try {
+                    overlapped = together.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            log.add(name);
+        }
+
+        void reading(Class<?>... types) {
+            reads(types);
+        }
+
+        void writing(Class<?>... types) {
+            writes(types);
+        }
+
+        void runningAlone() {
+            exclusive();
+        }
+
+        void budgeted(long nanos, boolean skipOnOverrun) {
+            budget(nanos, skipOnOverrun);
+        }
+
+        void blocking() {
+            ioBound();
+        }
+
+        void runningEvery(int ticks, long millis) {
+            everyTicks(ticks);
+            everyMillis(millis);
+        }
+    }
+
+    /**
+     * Throws a checked exception without declaring it, as systems written in other JVM languages may do
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Throwable> void sneakyThrow(Throwable throwable) throws T {
+        throw (T) throwable;
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUtils.printTestEnd();
+    }
+
+    @Test
+    void testConflicts() {
+        TestUtils.printTestHeader("testConflicts");
+        List<String> log = new CopyOnWriteArrayList<>();
+        RecordingSystem reader = new RecordingSystem("reader", log, null);
+        reader.reading(C1.class);
+        RecordingSystem otherReader = new RecordingSystem("otherReader", log, null);
+        otherReader.reading(C1.class, C2.class);
+        RecordingSystem writer = new RecordingSystem("writer", log, null);
+        writer.writing(C1.class);
+        RecordingSystem exclusive = new RecordingSystem("exclusive", log, null);
+        exclusive.runningAlone();
+        TestUtils.printTestIteration("Readers conflict", false, reader.conflictsWith(otherReader));
+        assertAll(
+                () -> assertFalse(reader.conflictsWith(otherReader)),
+                () -> assertTrue(reader.conflictsWith(writer)),
+                () -> assertTrue(writer.conflictsWith(otherReader)),
+                () -> assertTrue(exclusive.conflictsWith(reader)),
+                () -> assertTrue(reader.conflictsWith(exclusive))
+        );
+    }
+
+    @Test
+    void testParallelRun() {
+        TestUtils.printTestHeader("testParallelRun");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Scheduler scheduler = new Scheduler(executor);
+            List<String> log = new CopyOnWriteArrayList<>();
+            CountDownLatch together = new CountDownLatch(3);
+            RecordingSystem first = new RecordingSystem("first", log, null);
+            first.writing(C1.class);
+            RecordingSystem readerA = new RecordingSystem("readerA", log, together);
+            readerA.reading(C1.class);
+            RecordingSystem readerB = new RecordingSystem("readerB", log, together);
+            readerB.reading(C1.class);
+            RecordingSystem independent = new RecordingSystem("independent", log, together);
+            independent.writing(C2.class);
+            RecordingSystem last = new RecordingSystem("last", log, null);
+            last.writing(C1.class, C2.class);
+            for (AlmaSystem system : List.of(first, readerA, readerB, independent, last)) scheduler.register(system);
+            scheduler.run();
+
+            TestUtils.printTestIteration("Readers overlapped", true, readerA.overlapped && readerB.overlapped);
+            TestUtils.printTestIteration("Last system", "last", log.get(log.size() - 1));
+            assertTrue(readerA.overlapped && readerB.overlapped && independent.overlapped);
+            assertEquals(5, log.size());
+            assertEquals("last", log.get(4));
+            assertTrue(log.indexOf("first") < log.indexOf("readerA") && log.indexOf("first") < log.indexOf("readerB"));
+
+            // Failures are rethrown once every system has run
+            RecordingSystem failing = new RecordingSystem("failing", log, null) {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("failing");
+                }
+            };
+            scheduler.unregister(readerA);
+            scheduler.unregister(readerB);
+            scheduler.unregister(independent);
+            scheduler.register(failing);
+            log.clear();
+            assertThrows(IllegalStateException.class, scheduler::run);
+            assertEquals(List.of("first", "last"), log);
+            assertThrows(AlmaException.class, () -> scheduler.register(first));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testBudgets() {
+        TestUtils.printTestHeader("testBudgets");
+        Scheduler scheduler = new Scheduler(Runnable::run);
+        List<String> log = new CopyOnWriteArrayList<>();
+        List<AlmaSystem> overruns = new CopyOnWriteArrayList<>();
+        scheduler.setBudgetListener((system, elapsedNanos) -> overruns.add(system));
+        RecordingSystem slow = new RecordingSystem("slow", log, null) {
+            @Override
+            public void run() {
+                LockSupport.parkNanos(1_000_000);
+                super.run();
+            }
+        };
+        slow.budgeted(1, true);
+        RecordingSystem warned = new RecordingSystem("warned", log, null) {
+            @Override
+            public void run() {
+                LockSupport.parkNanos(1_000_000);
+                super.run();
+            }
+        };
+        warned.budgeted(1, false);
+        scheduler.register(slow);
+        scheduler.register(warned);
+
+        for (int i = 0; i < 3; i++) scheduler.run();
+        TestUtils.printTestIteration("Runs", "[slow, warned, warned, slow, warned]", log.toString());
+        assertEquals(List.of("slow", "warned", "warned", "slow", "warned"), log);
+        assertEquals(List.of(slow, warned, warned, slow, warned), overruns);
+        assertTrue(scheduler.getLastRunNanos(warned) >= 1_000_000);
+    }
+
+    @Test
+    void testStages() {
+        TestUtils.printTestHeader("testStages");
+        AlmaPool pool = AlmaPool.Factory.create();
+        Scheduler scheduler = new Scheduler(pool);
+        scheduler.addStage("simulation");
+        scheduler.addStage("snapshot");
+        scheduler.addStageBefore("input", "simulation");
+        scheduler.addStageAfter("physics", "simulation");
+        List<String> log = new CopyOnWriteArrayList<>();
+        long[] snapshot = new long[1];
+        scheduler.register("snapshot", new RecordingSystem("snapshot", log, null) {
+            @Override
+            public void run() {
+                snapshot[0] = pool.queryEntitiesWith(new Class<?>[]{AlmaPoolTest.C1.class}).stream().count();
+                super.run();
+            }
+        });
+        scheduler.register("simulation", new RecordingSystem("simulation", log, null) {
+            @Override
+            public void run() {
+                pool.commands().createEntity(new AlmaComponent[]{new AlmaPoolTest.C1(1)});
+                super.run();
+            }
+        });
+        scheduler.register("input", new RecordingSystem("input", log, null));
+        scheduler.register("physics", new RecordingSystem("physics", log, null));
+        scheduler.run();
+
+        TestUtils.printTestIteration("Stages", "[input, simulation, physics, snapshot]", scheduler.getStages().toString());
+        TestUtils.printTestIteration("Run order", "[input, simulation, physics, snapshot]", log.toString());
+        assertEquals(List.of("input", "simulation", "physics", "snapshot"), scheduler.getStages());
+        assertEquals(List.of("input", "simulation", "physics", "snapshot"), log);
+        // The entity recorded during the simulation is created before the snapshot
+        assertEquals(1, snapshot[0]);
+        assertThrows(AlmaException.class, () -> scheduler.addStage("input"));
+        assertThrows(AlmaException.class, () -> scheduler.register("render", new RecordingSystem("render", log, null)));
+    }
+
+    @Test
+    void testIoBoundSystems() {
+        TestUtils.printTestHeader("testIoBoundSystems");
+        ExecutorService executor = Executors.newSingleThreadExecutor(task -> new Thread(task, "cpu-system"));
+        try {
+            Scheduler scheduler = new Scheduler(executor);
+            List<String> log = new CopyOnWriteArrayList<>();
+            CountDownLatch released = new CountDownLatch(1);
+            String[] ioThread = new String[1];
+            // Blocks until a CPU bound system of the same stage runs, which needs the only CPU thread to be free
+            RecordingSystem io = new RecordingSystem("io", log, null) {
+                @Override
+                public void run() {
+                    ioThread[0] = Thread.currentThread().getName();
+                    try {
+                        if (released.await(5, TimeUnit.SECONDS)) super.run();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            io.blocking();
+            io.writing(C2.class);
+            RecordingSystem cpu = new RecordingSystem("cpu", log, null) {
+                @Override
+                public void run() {
+                    super.run();
+                    released.countDown();
+                }
+            };
+            cpu.writing(C1.class);
+            scheduler.register(io);
+            scheduler.register(cpu);
+            scheduler.run();
+
+            TestUtils.printTestIteration("Run order", "[cpu, io]", log.toString());
+            assertEquals(List.of("cpu", "io"), log);
+            assertNotEquals("cpu-system", ioThread[0]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testExecutionPolicies() {
+        TestUtils.printTestHeader("testExecutionPolicies");
+        AtomicLong clock = new AtomicLong();
+        Scheduler scheduler = new Scheduler(Runnable::run, null, null, clock::get);
+        List<String> log = new ArrayList<>();
+        RecordingSystem interval = new RecordingSystem("interval", log, null);
+        interval.runningEvery(3, 0);
+        interval.writing(C1.class);
+        RecordingSystem disabled = new RecordingSystem("disabled", log, null);
+        disabled.writing(C1.class);
+        disabled.setEnabled(false);
+        RecordingSystem after = new RecordingSystem("after", log, null);
+        after.writing(C1.class);
+        RecordingSystem throttled = new RecordingSystem("throttled", log, null);
+        throttled.runningEvery(1, 50);
+        scheduler.register(interval);
+        scheduler.register(disabled);
+        scheduler.register(after);
+        scheduler.register(throttled);
+
+        // Disabled systems are skipped, but still release the systems depending on them
+        for (int i = 0; i < 4; i++) {
+            scheduler.run();
+            clock.addAndGet(10_000_000);
+        }
+        TestUtils.printTestIteration("interval", 2, Collections.frequency(log, "interval"));
+        assertEquals(2, Collections.frequency(log, "interval"));
+        assertEquals(0, Collections.frequency(log, "disabled"));
+        assertEquals(4, Collections.frequency(log, "after"));
+        assertEquals(1, Collections.frequency(log, "throttled"));
+        assertEquals(0, scheduler.getLastRunNanos(disabled));
+
+        // Enabling a system again takes effect on the next tick without rebuilding the stages
+        log.clear();
+        disabled.setEnabled(true);
+        clock.set(60_000_000);
+        scheduler.run();
+        assertEquals(List.of("disabled", "after", "throttled"), log);
+
+        // Systems whose policy skips the tick don't start the stage
+        log.clear();
+        after.setEnabled(false);
+        disabled.setEnabled(false);
+        clock.set(100_000_000);
+        scheduler.run();
+        assertTrue(log.isEmpty());
+        // Third tick since the last run of the interval system, and 50ms since the last run of the throttled one
+        clock.set(110_000_000);
+        scheduler.run();
+        assertEquals(List.of("interval", "throttled"), log);
+    }
+
+    @Test
+    void testRejectedSystems() {
+        TestUtils.printTestHeader("testRejectedSystems");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        ioExecutor.shutdown();
+        Scheduler scheduler = new Scheduler(executor, ioExecutor, null);
+        List<String> log = new CopyOnWriteArrayList<>();
+        RecordingSystem writer = new RecordingSystem("writer", log, null);
+        writer.writing(C1.class);
+        RecordingSystem reader = new RecordingSystem("reader", log, null);
+        reader.reading(C1.class);
+        reader.blocking();
+        RecordingSystem after = new RecordingSystem("after", log, null);
+        after.writing(C1.class);
+        scheduler.register(writer);
+        scheduler.register(reader);
+        scheduler.register(after);
+
+        // The reader is rejected from the worker running the writer, the stage fails instead of waiting for it
+        RejectedExecutionException failure = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertThrows(RejectedExecutionException.class, scheduler::run));
+        TestUtils.printTestIteration("Runs", "[writer, after]", log.toString());
+        assertNotNull(failure);
+        assertEquals(List.of("writer", "after"), log);
+        executor.shutdown();
+    }
+
+    @Test
+    void testCheckedFailures() {
+        TestUtils.printTestHeader("testCheckedFailures");
+        Scheduler scheduler = new Scheduler(Runnable::run);
+        List<String> log = new ArrayList<>();
+        IOException checked = new IOException("checked");
+        RecordingSystem failing = new RecordingSystem("failing", log, null) {
+            @Override
+            public void run() {
+                sneakyThrow(checked);
+            }
+        };
+        scheduler.register(failing);
+        scheduler.register(new RecordingSystem("after", log, null));
+
+        // Checked failures are wrapped, keeping the failure of the system as the cause
+        AlmaException failure = assertThrows(AlmaException.class, scheduler::run);
+        TestUtils.printTestIteration("Cause", checked, failure.getCause());
+        assertSame(checked, failure.getCause());
+        assertEquals(List.of("after"), log);
+    }
+}
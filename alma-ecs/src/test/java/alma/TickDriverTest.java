@@ -0,0 +1,67 @@
+package alma;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import utils.TestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TickDriverTest {
+
+    private static final long STEP = 10_000_000;
+
+    @AfterEach
+    void tearDown() {
+        TestUtils.printTestEnd();
+    }
+
+    @Test
+    void testFixedTimestep() {
+        TestUtils.printTestHeader("testFixedTimestep");
+        AtomicLong clock = new AtomicLong();
+        AtomicLong tickCost = new AtomicLong();
+        List<Long> overrunTicks = new ArrayList<>();
+        List<Long> dropped = new ArrayList<>();
+        TickDriver driver = new TickDriver(() -> clock.addAndGet(tickCost.get()), STEP, 4, clock::get,
+                new TickDriver.Listener() {
+                    @Override
+                    public void tickOverrun(long tick, long elapsedNanos) {
+                        overrunTicks.add(tick);
+                    }
+
+                    @Override
+                    public void ticksDropped(long ticks) {
+                        dropped.add(ticks);
+                    }
+                });
+
+        assertEquals(0, driver.advance());
+        clock.addAndGet(35_000_000);
+        int run = driver.advance();
+        TestUtils.printTestIteration("Ticks after 35ms", 3, run);
+        assertEquals(3, run);
+        assertEquals(0.5, driver.getInterpolation(), 1e-9);
+
+        // A stall only runs the catch up limit and drops the rest of the ticks
+        clock.addAndGet(100_000_000);
+        run = driver.advance();
+        TestUtils.printTestIteration("Ticks after 100ms stall", 4, run);
+        assertEquals(4, run);
+        assertEquals(List.of(6L), dropped);
+        assertEquals(6, driver.getDroppedTicks());
+
+        // Ticks slower than the step are reported as overruns
+        tickCost.set(STEP + 1);
+        clock.addAndGet(STEP);
+        driver.advance();
+        TestUtils.printTestIteration("Overrun ticks", List.of(8L), overrunTicks);
+        assertEquals(List.of(8L), overrunTicks);
+        assertEquals(1, driver.getOverruns());
+        assertEquals(STEP + 1, driver.getLastTickNanos());
+        assertEquals(8, driver.getTicks());
+    }
+}
@@ -67,4 +67,21 @@ class BitIndexTest {
         assertEquals(expected1, sut1.hashCode());
         assertEquals(expected2, sut2.hashCode());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSignatureMatching() {
+
+        TestUtils.printTestHeader("testSignatureMatching");
+        // Two signatures of two words each, densely packed
+        int[] signatures = new int[4];
+        new BitIndex(new int[]{3, 14, 44}, 63).copyTo(signatures, 0);
+        new BitIndex(new int[]{14, 31}, 63).copyTo(signatures, 2);
+        BitIndex query = new BitIndex(new int[]{3, 44}, 63);
+        BitIndex excluded = new BitIndex(new int[]{31}, 63);
+
+        assertTrue(query.containedIn(signatures, 0));
+        assertFalse(query.containedIn(signatures, 2));
+        assertTrue(excluded.disjointFrom(signatures, 0));
+        assertFalse(excluded.disjointFrom(signatures, 2));
+    }
+}
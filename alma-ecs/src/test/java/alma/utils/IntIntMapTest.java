@@ -0,0 +1,42 @@
+package alma.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntIntMapTest {
+
+    @Test
+    void testPutGet() {
+        IntIntMap sut = new IntIntMap(4);
+        sut.put(7, 70);
+        sut.put(3, 30);
+        sut.put(7, 71);
+        assertEquals(2, sut.size());
+        assertEquals(71, sut.get(7, -1));
+        assertEquals(30, sut.get(3, -1));
+        assertEquals(-1, sut.get(5, -1));
+        assertEquals(-1, sut.get(-1, -1));
+        assertThrows(AlmaException.class, () -> sut.put(-1, 0));
+    }
+
+    @Test
+    void testGrow() {
+        IntIntMap sut = new IntIntMap(4);
+        for (int i = 0; i < 1000; i++) sut.put(i << 19, i);
+        assertEquals(1000, sut.size());
+        for (int i = 0; i < 1000; i++) assertEquals(i, sut.get(i << 19, -1));
+    }
+
+    @Test
+    void testClear() {
+        IntIntMap sut = new IntIntMap();
+        sut.put(1, 10);
+        sut.put(2, 20);
+        sut.clear();
+        assertEquals(0, sut.size());
+        assertEquals(-1, sut.get(1, -1));
+        sut.put(2, 21);
+        assertEquals(21, sut.get(2, -1));
+    }
+}
@@ -65,4 +65,15 @@ class IntStackTest {
         IntStack sut = new IntStack(INVALID_INT);
         assertEquals(INVALID_INT, sut.pop());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testClear() {
+        IntStack sut = new IntStack(INVALID_INT);
+        sut.push(4);
+        sut.push(2);
+        assertFalse(sut.isEmpty());
+        sut.clear();
+        assertTrue(sut.isEmpty());
+        assertEquals(INVALID_INT, sut.pop());
+    }
+}
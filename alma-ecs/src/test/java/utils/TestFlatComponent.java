@@ -0,0 +1,68 @@
+package utils;
+
+import alma.api.AlmaFlatComponent;
+import alma.api.ComponentLayout;
+
+import static jdk.incubator.foreign.MemoryLayouts.JAVA_FLOAT;
+import static jdk.incubator.foreign.MemoryLayouts.JAVA_INT;
+
+/**
+ * TestFlatComponent
+ *
+ * @author Santiago Barreiro
+ */
+public class TestFlatComponent extends AlmaFlatComponent {
+
+    public static final ComponentLayout LAYOUT = ComponentLayout.of(JAVA_FLOAT.withName("x"), JAVA_INT.withName("value"));
+    private static final long X = LAYOUT.offset("x");
+    private static final long VALUE = LAYOUT.offset("value");
+
+    public TestFlatComponent(float x, int value) {
+        this();
+        setX(x);
+        setValue(value);
+    }
+
+    public TestFlatComponent() {
+        super(LAYOUT);
+    }
+
+    @Override
+    public ComponentLayout layout() {
+        return LAYOUT;
+    }
+
+    public float getX() {
+        return getFloat(X);
+    }
+
+    public void setX(float x) {
+        setFloat(X, x);
+    }
+
+    public int getValue() {
+        return getInt(VALUE);
+    }
+
+    public void setValue(int value) {
+        setInt(VALUE, value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TestFlatComponent that = (TestFlatComponent) o;
+        return getX() == that.getX() && getValue() == that.getValue();
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Float.hashCode(getX()) + getValue();
+    }
+
+    @Override
+    public String toString() {
+        return "[ " + this.getClass().getSimpleName() + " | " + getX() + ", " + getValue() + " ]";
+    }
+}